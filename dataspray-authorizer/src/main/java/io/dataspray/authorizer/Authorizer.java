@@ -26,6 +26,9 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayCustomAuthorizerEvent;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.gson.Gson;
 import io.dataspray.api.ApiConstants;
@@ -42,6 +45,8 @@ import io.dataspray.store.UserStore;
 import jakarta.inject.Inject;
 import jakarta.inject.Named;
 import jakarta.ws.rs.core.HttpHeaders;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import software.amazon.awssdk.arns.Arn;
@@ -60,6 +65,11 @@ import static io.dataspray.store.CognitoJwtVerifier.VerifiedCognitoJwt;
 public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEvent, Object> {
     public static final String AUTHORIZATION_HEADER = HttpHeaders.AUTHORIZATION.toLowerCase();
     public static final Predicate<String> API_KEY_PREDICATE = Pattern.compile("(^\\w*x[\\w-_]?)api[\\w-_]?key\\w*$", Pattern.CASE_INSENSITIVE).asMatchPredicate();
+    /** Policies only depend on the API and the access granted, kept across invocations of a warm instance */
+    public static final long POLICY_CACHE_MAX_SIZE = 1_000;
+    /** Policies over this size may not be accepted by API Gateway */
+    public static final int POLICY_SIZE_WARN_BYTES = 8 * 1024;
+    private static final Pattern ARN_INJECTION_PATTERN = Pattern.compile("[^A-Za-z0-9-_]");
 
     @Inject
     Gson gson;
@@ -70,6 +80,16 @@ public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEven
     @Inject
     CognitoJwtVerifier cognitoJwtVerifier;
 
+    private final LoadingCache<PolicyKey, PolicyDocument> policyDocumentCache = CacheBuilder.newBuilder()
+            .maximumSize(POLICY_CACHE_MAX_SIZE)
+            .build(CacheLoader.from(key -> generatePolicyDocument(
+                    key.getRegion(),
+                    key.getAwsAccountId(),
+                    key.getRestApiId(),
+                    key.getStage(),
+                    key.getOrganizationNames(),
+                    key.getQueueWhitelist())));
+
     @Override
     public Object handleRequest(APIGatewayCustomAuthorizerEvent event, Context context) {
         try {
@@ -148,7 +168,7 @@ public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEven
             String stage = event.getRequestContext().getStage();
 
             // Send back allow policy
-            PolicyDocument policyDocument = generatePolicyDocument(region, awsAccountId, restApiId, stage, organizationNames, queueWhitelist);
+            PolicyDocument policyDocument = getPolicyDocument(region, awsAccountId, restApiId, stage, organizationNames, queueWhitelist);
             AuthPolicy authPolicy = new AuthPolicy(
                     username,
                     policyDocument,
@@ -165,6 +185,20 @@ public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEven
         }
     }
 
+    /**
+     * Cached policy document, must not be modified.
+     */
+    @VisibleForTesting
+    PolicyDocument getPolicyDocument(
+            String region,
+            String awsAccountId,
+            String restApiId,
+            String stage,
+            ImmutableSet<String> organizationNames,
+            ImmutableSet<String> queueWhitelist) {
+        return policyDocumentCache.getUnchecked(new PolicyKey(region, awsAccountId, restApiId, stage, organizationNames, queueWhitelist));
+    }
+
     @VisibleForTesting
     public static PolicyDocument generatePolicyDocument(
             String region,
@@ -178,13 +212,15 @@ public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEven
         Statement statement = new Statement()
                 .setEffect(Effect.ALLOW)
                 .setAction("execute-api:Invoke");
+        ImmutableSet<String> organizationNamesSanitized = organizationNames.stream()
+                .map(Authorizer::sanitizeArnInjection)
+                .collect(ImmutableSet.toImmutableSet());
 
         if (queueWhitelist.isEmpty()) {
             for (String topLevelPath : ApiConstants.TOP_LEVEL_PATHS) {
                 for (String wildcardSuffix : List.of("", "/*")) {
                     if (ORGANIZATION_PATH_PREFIX.equals(topLevelPath)) {
-                        for (String organizationName : organizationNames) {
-                            String organizationNameSanitized = sanitizeArnInjection(organizationName);
+                        for (String organizationNameSanitized : organizationNamesSanitized) {
                             // Allow for organization endpoint
                             statement.addResource(Statement.getExecuteApiArn(
                                     region, awsAccountId, restApiId, stage,
@@ -198,8 +234,7 @@ public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEven
                 }
             }
         } else {
-            for (String organizationName : organizationNames) {
-                String organizationNameSanitized = sanitizeArnInjection(organizationName);
+            for (String organizationNameSanitized : organizationNamesSanitized) {
                 for (String queue : queueWhitelist) {
                     for (String wildcardSuffix : List.of("", "/*")) {
                         statement.addResource(Statement.getExecuteApiArn(
@@ -212,10 +247,35 @@ public class Authorizer implements RequestHandler<APIGatewayCustomAuthorizerEven
         }
 
         policyDocument.addStatement(statement);
+
+        long resourcesBytes = statement.getResources().stream()
+                .mapToLong(resource -> resource.length() + 3)
+                .sum();
+        if (resourcesBytes > POLICY_SIZE_WARN_BYTES) {
+            log.warn("Policy for organizations {} with {} whitelisted queues has {} resources of {} bytes",
+                    organizationNames, queueWhitelist.size(), statement.getResources().size(), resourcesBytes);
+        }
         return policyDocument;
     }
 
     public static String sanitizeArnInjection(String accountId) {
-        return accountId.replaceAll("[^A-Za-z0-9-_]", "");
+        return ARN_INJECTION_PATTERN.matcher(accountId).replaceAll("");
+    }
+
+    @Value
+    private static class PolicyKey {
+        @NonNull
+        String region;
+        @NonNull
+        String awsAccountId;
+        @NonNull
+        String restApiId;
+        @NonNull
+        String stage;
+        @NonNull
+        ImmutableSet<String> organizationNames;
+        /** Immutable sets keep their hash code, long whitelists are not hashed on every lookup */
+        @NonNull
+        ImmutableSet<String> queueWhitelist;
     }
 }
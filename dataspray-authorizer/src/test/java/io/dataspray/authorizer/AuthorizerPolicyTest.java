@@ -0,0 +1,81 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.authorizer;
+
+import com.google.common.collect.ImmutableSet;
+import io.dataspray.authorizer.model.PolicyDocument;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Compares building policies on every request against serving them from the cache.
+ */
+@Slf4j
+class AuthorizerPolicyTest {
+
+    private static final int ITERATIONS = 1_000;
+
+    @ParameterizedTest(name = "{0} queues")
+    @ValueSource(ints = {1, 10, 1_000})
+    void benchmarkPolicyDocument(int queueCount) throws Exception {
+        Authorizer authorizer = new Authorizer();
+        ImmutableSet<String> organizationNames = ImmutableSet.of("my-org");
+        ImmutableSet<String> queueWhitelist = IntStream.range(0, queueCount)
+                .mapToObj(i -> "queue-" + i)
+                .collect(ImmutableSet.toImmutableSet());
+
+        long generateStartNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            Authorizer.generatePolicyDocument("us-east-1", "123456789012", "api-id", "stage", organizationNames, queueWhitelist);
+        }
+        long generateNanos = System.nanoTime() - generateStartNanos;
+
+        PolicyDocument policyDocument = authorizer.getPolicyDocument("us-east-1", "123456789012", "api-id", "stage", organizationNames, queueWhitelist);
+        long cachedStartNanos = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            assertSame(policyDocument, authorizer.getPolicyDocument("us-east-1", "123456789012", "api-id", "stage",
+                    ImmutableSet.copyOf(organizationNames), ImmutableSet.copyOf(queueWhitelist)));
+        }
+        long cachedNanos = System.nanoTime() - cachedStartNanos;
+
+        log.info("Policy for {} queues: generated {} us, cached {} us per request",
+                queueCount,
+                TimeUnit.NANOSECONDS.toMicros(generateNanos / ITERATIONS),
+                TimeUnit.NANOSECONDS.toMicros(cachedNanos / ITERATIONS));
+        assertEquals(2 * queueCount, policyDocument.getStatements().get(0).getResources().size());
+        assertEquals(Authorizer.generatePolicyDocument("us-east-1", "123456789012", "api-id", "stage", organizationNames, queueWhitelist),
+                policyDocument);
+
+        // Different access does not share a policy
+        assertNotSame(policyDocument, authorizer.getPolicyDocument("us-east-1", "123456789012", "api-id", "stage",
+                organizationNames, ImmutableSet.of("other-queue")));
+    }
+}
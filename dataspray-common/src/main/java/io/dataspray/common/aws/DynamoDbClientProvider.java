@@ -10,7 +10,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
 
@@ -34,6 +37,8 @@ public class DynamoDbClientProvider {
     @Inject
     SdkHttpClient sdkHttpClient;
     @Inject
+    SdkAsyncHttpClient sdkAsyncHttpClient;
+    @Inject
     NetworkUtil networkUtil;
 
     @Singleton
@@ -48,6 +53,18 @@ public class DynamoDbClientProvider {
         return builder.build();
     }
 
+    @Singleton
+    public DynamoDbAsyncClient getDynamoDbAsyncClient() {
+        log.debug("Opening Dynamo v2 async client on {}", serviceEndpointOpt);
+        waitUntilPortOpen();
+        DynamoDbAsyncClientBuilder builder = DynamoDbAsyncClient.builder()
+                .credentialsProvider(awsCredentialsProviderSdk2)
+                .httpClient(sdkAsyncHttpClient);
+        serviceEndpointOpt.map(URI::create).ifPresent(builder::endpointOverride);
+        productionRegionOpt.map(Region::of).ifPresent(builder::region);
+        return builder.build();
+    }
+
     private void waitUntilPortOpen() {
         if (startupWaitUntilDeps && serviceEndpointOpt.isPresent()) {
             log.info("Waiting for Dynamo to be up {}", serviceEndpointOpt.get());
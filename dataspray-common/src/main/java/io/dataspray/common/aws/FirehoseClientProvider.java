@@ -9,7 +9,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.firehose.FirehoseAsyncClient;
+import software.amazon.awssdk.services.firehose.FirehoseAsyncClientBuilder;
 import software.amazon.awssdk.services.firehose.FirehoseClient;
 import software.amazon.awssdk.services.firehose.FirehoseClientBuilder;
 
@@ -29,6 +32,8 @@ public class FirehoseClientProvider {
     AwsCredentialsProvider awsCredentialsProvider;
     @Inject
     SdkHttpClient sdkHttpClient;
+    @Inject
+    SdkAsyncHttpClient sdkAsyncHttpClient;
 
     @Singleton
     public FirehoseClient getFirehoseClient() {
@@ -43,4 +48,18 @@ public class FirehoseClientProvider {
 
         return firehoseClientBuilder.build();
     }
+
+    @Singleton
+    public FirehoseAsyncClient getFirehoseAsyncClient() {
+        log.debug("Opening Firehose v2 async client");
+        FirehoseAsyncClientBuilder firehoseAsyncClientBuilder = FirehoseAsyncClient.builder()
+                .credentialsProvider(awsCredentialsProvider)
+                .httpClient(sdkAsyncHttpClient);
+        serviceEndpointOpt.map(URI::create)
+                .ifPresent(firehoseAsyncClientBuilder::endpointOverride);
+        productionRegionOpt.map(Region::of)
+                .ifPresent(firehoseAsyncClientBuilder::region);
+
+        return firehoseAsyncClientBuilder.build();
+    }
 }
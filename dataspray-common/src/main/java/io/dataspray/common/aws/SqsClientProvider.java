@@ -9,7 +9,10 @@ import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.http.SdkHttpClient;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
+import software.amazon.awssdk.services.sqs.SqsAsyncClientBuilder;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.SqsClientBuilder;
 
@@ -29,6 +32,8 @@ public class SqsClientProvider {
     AwsCredentialsProvider awsCredentialsProvider;
     @Inject
     SdkHttpClient sdkHttpClient;
+    @Inject
+    SdkAsyncHttpClient sdkAsyncHttpClient;
 
     @Singleton
     public SqsClient getLambdaClient() {
@@ -43,4 +48,18 @@ public class SqsClientProvider {
 
         return sqsClientBuilder.build();
     }
+
+    @Singleton
+    public SqsAsyncClient getSqsAsyncClient() {
+        log.debug("Opening SQS v2 async client");
+        SqsAsyncClientBuilder sqsAsyncClientBuilder = SqsAsyncClient.builder()
+                .credentialsProvider(awsCredentialsProvider)
+                .httpClient(sdkAsyncHttpClient);
+        serviceEndpointOpt.map(URI::create)
+                .ifPresent(sqsAsyncClientBuilder::endpointOverride);
+        productionRegionOpt.map(Region::of)
+                .ifPresent(sqsAsyncClientBuilder::region);
+
+        return sqsAsyncClientBuilder.build();
+    }
 }
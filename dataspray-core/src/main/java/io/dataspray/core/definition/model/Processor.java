@@ -87,6 +87,15 @@ public class Processor extends Item {
         return Boolean.TRUE.equals(hasDynamoState);
     }
 
+    /**
+     * Fetch state of all message keys in a batch at once before processing the batch.
+     */
+    Boolean prefetchDynamoState;
+
+    public boolean isPrefetchDynamoState() {
+        return isHasDynamoState() && hasInputStreams() && Boolean.TRUE.equals(prefetchDynamoState);
+    }
+
     @Cacheable(lifetime = Definition.CACHEABLE_METHODS_LIFETIME_IN_MIN)
     public ImmutableList<StreamLink> getStreams() {
         return ImmutableList.<StreamLink>builder()
@@ -32,6 +32,7 @@ import io.dataspray.cdk.stream.ingest.IngestFunctionStack;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.store.impl.FirehoseS3AthenaBatchStore;
 import io.dataspray.store.impl.LambdaDeployerImpl;
+import io.dataspray.store.impl.S3ClaimCheckStore;
 import io.dataspray.store.impl.SqsStreamStore;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
@@ -113,6 +114,30 @@ public class ControlFunctionStack extends ApiFunctionStack {
                                         "sqs:GetQueueAttributes"))
                                 .resources(ImmutableList.of(
                                         "arn:aws:sqs:" + getRegion() + ":" + getAccount() + ":" + SqsStreamStore.CUSTOMER_QUEUE_WILDCARD))
+                                .build(),
+                        PolicyStatement.Builder.create()
+                                .sid(getConstructIdCamelCase(LambdaDeployerImpl.CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_SQS_SEND + "PermissionBoundary"))
+                                .effect(Effect.ALLOW)
+                                .actions(ImmutableList.of(
+                                        "sqs:SendMessage"))
+                                .resources(ImmutableList.of(
+                                        "arn:aws:sqs:" + getRegion() + ":" + getAccount() + ":" + SqsStreamStore.CUSTOMER_QUEUE_WILDCARD))
+                                .build(),
+                        PolicyStatement.Builder.create()
+                                .sid(getConstructIdCamelCase(LambdaDeployerImpl.CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_SQS_SEND + "TopicsPermissionBoundary"))
+                                .effect(Effect.ALLOW)
+                                .actions(ImmutableList.of(
+                                        "dynamodb:GetItem"))
+                                .resources(ImmutableList.of(
+                                        singleTableStack.getSingleTableTable().getTableArn()))
+                                .build(),
+                        PolicyStatement.Builder.create()
+                                .sid(getConstructIdCamelCase(LambdaDeployerImpl.CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_CLAIM_CHECK + "PermissionBoundary"))
+                                .effect(Effect.ALLOW)
+                                .actions(ImmutableList.of(
+                                        "s3:GetObject"))
+                                .resources(ImmutableList.of(
+                                        ingestStack.getBucketEtl().getBucketArn() + "/" + S3ClaimCheckStore.CLAIM_CHECK_PREFIX + "*"))
                                 .build()))
                 .build();
 
@@ -29,6 +29,7 @@ import io.dataspray.cdk.store.SingleTableStack;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.store.TopicStore;
 import io.dataspray.store.impl.LambdaDeployerImpl;
+import io.dataspray.store.impl.S3ClaimCheckStore;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awscdk.Duration;
@@ -122,11 +123,17 @@ public class IngestFunctionStack extends ApiFunctionStack {
                 .autoDeleteObjects(false)
                 .blockPublicAccess(BlockPublicAccess.BLOCK_ALL)
                 // Add different expiry for each retention prefix
-                .lifecycleRules(Arrays.stream(TopicStore.BatchRetention.values()).map(batchRetention -> LifecycleRule.builder()
-                        .id(batchRetention.name())
-                        .expiration(Duration.days(batchRetention.getRetentionInDays()))
-                        .prefix(ETL_BUCKET_RETENTION_PREFIX_PREFIX + batchRetention.name())
-                        .build()).collect(Collectors.toList()))
+                .lifecycleRules(Stream.concat(Arrays.stream(TopicStore.BatchRetention.values()).map(batchRetention -> LifecycleRule.builder()
+                                .id(batchRetention.name())
+                                .expiration(Duration.days(batchRetention.getRetentionInDays()))
+                                .prefix(ETL_BUCKET_RETENTION_PREFIX_PREFIX + batchRetention.name())
+                                .build()),
+                        // Claim-checked stream messages only need to outlive the stream retention
+                        Stream.of(LifecycleRule.builder()
+                                .id("CLAIM_CHECK")
+                                .expiration(Duration.days(S3ClaimCheckStore.CLAIM_CHECK_RETENTION_IN_DAYS))
+                                .prefix(S3ClaimCheckStore.CLAIM_CHECK_PREFIX)
+                                .build())).collect(Collectors.toList()))
                 // Move objects to archive after inactivity to save costs
                 .intelligentTieringConfigurations(Arrays.stream(TopicStore.BatchRetention.values())
                         // Only makes sense for data stored for more than 4 months (migrated after 3)
@@ -138,12 +145,20 @@ public class IngestFunctionStack extends ApiFunctionStack {
                                 .deepArchiveAccessTierTime(Duration.days(180))
                                 .build()).collect(Collectors.toList()))
                 .build();
+        getApiFunction().getFunction().addToRolePolicy(PolicyStatement.Builder.create()
+                .sid(getConstructIdCamelCase("ClaimCheck"))
+                .effect(Effect.ALLOW)
+                .actions(ImmutableList.of(
+                        "s3:PutObject"))
+                .resources(ImmutableList.of(
+                        bucketEtl.getBucketArn() + "/" + S3ClaimCheckStore.CLAIM_CHECK_PREFIX + "*"))
+                .build());
 
         firehoseName = getConstructId("firehose");
         firehose = DeliveryStream.Builder.create(this, firehoseName)
                 .deliveryStreamName(firehoseName)
                 .destination(S3Bucket.Builder.create(bucketEtl)
-                        .bufferingInterval(Duration.seconds(900))
+                        .bufferingInterval(Duration.seconds(FIREHOSE_BUFFER_INTERVAL.toSeconds()))
                         .bufferingSize(Size.mebibytes(128))
                         // Athena only supports gzip and bzip2
                         .compression(Compression.GZIP)
@@ -177,7 +192,8 @@ public class IngestFunctionStack extends ApiFunctionStack {
         getApiFunction().getFunction().addToRolePolicy(PolicyStatement.Builder.create()
                 .effect(Effect.ALLOW)
                 .actions(ImmutableList.of(
-                        "firehose:PutRecord"))
+                        "firehose:PutRecord",
+                        "firehose:PutRecordBatch"))
                 .resources(ImmutableList.of(
                         firehose.getDeliveryStreamArn()))
                 .build());
@@ -33,15 +33,18 @@ import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.Update;
 import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
 
 import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -53,6 +56,13 @@ public class DynamoStateManager implements StateManager {
 
     public static final String TTL_IN_EPOCH_SEC_KEY_NAME = "ttlInEpochSec";
     public static final String SORT_KEY = "state";
+    private static final Pattern FIELD_MAPPING_SANITIZE_PATTERN = Pattern.compile("(^[^a-z])|[^a-zA-Z0-9]");
+    private static final AttributeValue ZERO = AttributeValue.fromN("0");
+    /**
+     * Placeholder of a constant not tied to any field. Starts with an uppercase letter, which
+     * {@link #sanitizeFieldMapping} never produces, so it cannot collide with a placeholder of a field.
+     */
+    private static final String ZERO_CONSTANT_MAPPING = ":Zero";
     private final String tableName;
     private final String[] key;
     private final String keyStr;
@@ -65,16 +75,37 @@ public class DynamoStateManager implements StateManager {
     private Map<String, String> deleteUpdates = Maps.newHashMap();
     private Map<String, String> nameMap = Maps.newHashMap();
     private Map<String, AttributeValue> valMap = Maps.newHashMap();
-    private Optional<Map<String, AttributeValue>> itemOpt = Optional.empty();
+    /** Pending increments and string set changes, repeated changes to the same key are merged into one */
+    private Map<String, BigDecimal> numberIncrements = Maps.newHashMap();
+    private Map<String, Set<String>> stringSetAdditions = Maps.newHashMap();
+    private Map<String, Set<String>> stringSetDeletions = Maps.newHashMap();
+    /** Read without holding the lock by {@link #getItem} */
+    private volatile Optional<Map<String, AttributeValue>> itemOpt = Optional.empty();
     private boolean isClosed = false;
 
     DynamoStateManager(String tableName, Gson gson, DynamoDbClient dynamo, String[] key, Optional<Duration> ttl) {
+        this(tableName, gson, dynamo, key, ttl, Optional.empty());
+    }
+
+    /**
+     * @param prefetchedItemOpt Item already fetched, empty map if known not to exist
+     */
+    DynamoStateManager(String tableName, Gson gson, DynamoDbClient dynamo, String[] key, Optional<Duration> ttl, Optional<Map<String, AttributeValue>> prefetchedItemOpt) {
         this.tableName = tableName;
         this.key = key;
         this.keyStr = StringSerdeUtil.mergeStrings(key);
         this.gson = gson;
         this.dynamo = dynamo;
         this.ttl = ttl;
+        this.itemOpt = prefetchedItemOpt;
+    }
+
+    /**
+     * Primary key of the state item for the given merged key.
+     */
+    static Map<String, AttributeValue> getItemKey(String keyStr) {
+        return Map.of("pk", AttributeValue.fromS(keyStr),
+                "sk", AttributeValue.fromS(SORT_KEY));
     }
 
     @Override
@@ -153,16 +184,38 @@ public class DynamoStateManager implements StateManager {
     }
 
     @Override
-    public synchronized void addToNumber(String key, Number increment) {
+    public void addToNumber(String key, Number increment) {
+        addToNumber(key, new BigDecimal(increment.toString()));
+    }
+
+    @Override
+    public long getLong(String key) {
         checkState(!isClosed);
-        flushForKey(key);
-        touch();
-        setUpdates.put(key, String.format(
-                "%s = if_not_exists(%s, %s) + %s",
-                fieldMapping(key),
-                fieldMapping(key),
-                constantMapping("zero", AttributeValue.fromN("0")),
-                constantMapping(key, AttributeValue.fromN(increment.toString()))));
+        return get(key)
+                .flatMap(a -> Optional.ofNullable(a.n()))
+                .map(DynamoStateManager::parseLong)
+                .orElse(0L);
+    }
+
+    @Override
+    public void addToLong(String key, long increment) {
+        addToNumber(key, BigDecimal.valueOf(increment));
+    }
+
+    private synchronized void addToNumber(String key, BigDecimal increment) {
+        checkState(!isClosed);
+        BigDecimal pendingIncrement = numberIncrements.get(key);
+        if (pendingIncrement == null) {
+            flushForKey(key);
+            touch();
+        } else {
+            increment = pendingIncrement.add(increment);
+        }
+        numberIncrements.put(key, increment);
+        String field = fieldMapping(key);
+        valMap.put(ZERO_CONSTANT_MAPPING, ZERO);
+        setUpdates.put(key, field + " = if_not_exists(" + field + ", " + ZERO_CONSTANT_MAPPING + ") + "
+                            + constantMapping(key, AttributeValue.fromN(increment.toPlainString())));
     }
 
     @Override
@@ -185,23 +238,28 @@ public class DynamoStateManager implements StateManager {
     @Override
     public synchronized void addToStringSet(String key, String... values) {
         checkState(!isClosed);
-        flushForKey(key);
-        touch();
-        addUpdates.put(key, String.format(
-                "%s %s",
-                fieldMapping(key),
-                constantMapping(key, AttributeValue.fromSs(List.of(values)))));
+        addUpdates.put(key, stringSetUpdate(key, stringSetAdditions, values));
     }
 
     @Override
     public synchronized void deleteFromStringSet(String key, String... values) {
         checkState(!isClosed);
-        flushForKey(key);
-        touch();
-        deleteUpdates.put(key, String.format(
-                "%s %s",
-                fieldMapping(key),
-                constantMapping(key, AttributeValue.fromSs(List.of(values)))));
+        deleteUpdates.put(key, stringSetUpdate(key, stringSetDeletions, values));
+    }
+
+    /**
+     * Merges values into the pending change of the same kind for the given key, otherwise starts a new one.
+     */
+    private String stringSetUpdate(String key, Map<String, Set<String>> pendingChanges, String... values) {
+        Set<String> pendingValues = pendingChanges.get(key);
+        if (pendingValues == null) {
+            flushForKey(key);
+            touch();
+            pendingValues = Sets.newHashSet();
+            pendingChanges.put(key, pendingValues);
+        }
+        Collections.addAll(pendingValues, values);
+        return fieldMapping(key) + " " + constantMapping(key, AttributeValue.fromSs(List.copyOf(pendingValues)));
     }
 
     @Override
@@ -213,10 +271,7 @@ public class DynamoStateManager implements StateManager {
     }
 
     private synchronized void set(String key, AttributeValue value) {
-        setUpdates.put(key, String.format(
-                "%s = %s",
-                fieldMapping(key),
-                constantMapping(key, value)));
+        setUpdates.put(key, fieldMapping(key) + " = " + constantMapping(key, value));
     }
 
     private Optional<AttributeValue> get(String key) {
@@ -248,12 +303,90 @@ public class DynamoStateManager implements StateManager {
      * @return The updated item if any updates were flushed, otherwise empty.
      */
     private synchronized Optional<Map<String, AttributeValue>> flushAndGet() {
-        if (setUpdates.isEmpty()
-            && removeUpdates.isEmpty()
-            && addUpdates.isEmpty()
-            && deleteUpdates.isEmpty()) {
+        if (!hasPendingUpdates()) {
             return Optional.empty();
         }
+        String updateExpression = getUpdateExpression();
+        log.info("Flushing dynamo update for table {} key {}: {}",
+                tableName, key, updateExpression);
+        long startNanos = System.nanoTime();
+        itemOpt = Optional.of(dynamo.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(getItemKey(keyStr))
+                .updateExpression(updateExpression)
+                .expressionAttributeNames(nameMap)
+                .expressionAttributeValues(valMap)
+                .returnValues(ReturnValue.ALL_NEW)
+                .build()).attributes());
+        recordWrite(System.nanoTime() - startNanos);
+        clearPendingUpdates();
+
+        return itemOpt;
+    }
+
+    /**
+     * Flushes pending updates without reading back the updated item, for when the state is no longer needed.
+     */
+    synchronized void commit() {
+        if (!hasPendingUpdates()) {
+            return;
+        }
+        String updateExpression = getUpdateExpression();
+        log.info("Committing dynamo update for table {} key {}: {}",
+                tableName, key, updateExpression);
+        long startNanos = System.nanoTime();
+        dynamo.updateItem(UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(getItemKey(keyStr))
+                .updateExpression(updateExpression)
+                .expressionAttributeNames(nameMap)
+                .expressionAttributeValues(valMap)
+                .returnValues(ReturnValue.NONE)
+                .build());
+        recordWrite(System.nanoTime() - startNanos);
+        markCommitted(Optional.empty());
+    }
+
+    private void recordWrite(long durationNanos) {
+        RunnerMetrics metrics = RunnerMetrics.get();
+        metrics.recordDuration(RunnerMetrics.Phase.STATE_FLUSH, durationNanos);
+        metrics.increment(RunnerMetrics.Counter.STATE_WRITES, 1);
+        metrics.increment(RunnerMetrics.Counter.STATE_WRITE_BYTES, getPendingSizeEstimate());
+    }
+
+    synchronized boolean hasPendingUpdates() {
+        return !setUpdates.isEmpty()
+               || !removeUpdates.isEmpty()
+               || !addUpdates.isEmpty()
+               || !deleteUpdates.isEmpty();
+    }
+
+    /**
+     * Pending updates as part of a transaction, call {@link #markCommitted} once the transaction succeeds.
+     */
+    synchronized Update getPendingUpdate() {
+        checkState(hasPendingUpdates());
+        return Update.builder()
+                .tableName(tableName)
+                .key(getItemKey(keyStr))
+                .updateExpression(getUpdateExpression())
+                .expressionAttributeNames(Map.copyOf(nameMap))
+                .expressionAttributeValues(Map.copyOf(valMap))
+                .build();
+    }
+
+    /**
+     * Pending updates were written elsewhere.
+     *
+     * @param committedItemOpt Item as it is after the commit if read back, otherwise the item is fetched again if read
+     *                         afterwards
+     */
+    synchronized void markCommitted(Optional<Map<String, AttributeValue>> committedItemOpt) {
+        clearPendingUpdates();
+        itemOpt = committedItemOpt;
+    }
+
+    private String getUpdateExpression() {
         String updateExpression = "";
         if (!setUpdates.isEmpty()) {
             updateExpression += " SET " + String.join(", ", setUpdates.values());
@@ -267,27 +400,19 @@ public class DynamoStateManager implements StateManager {
         if (!deleteUpdates.isEmpty()) {
             updateExpression += " DELETE " + String.join(", ", deleteUpdates.values());
         }
-        updateExpression = updateExpression.trim();
-        log.info("Flushing dynamo update for table {} key {}: {}",
-                tableName, key, updateExpression);
-        itemOpt = Optional.of(dynamo.updateItem(UpdateItemRequest.builder()
-                .tableName(tableName)
-                .key(Map.of("pk", AttributeValue.fromS(keyStr),
-                        "sk", AttributeValue.fromS(SORT_KEY)))
-                .updateExpression(updateExpression)
-                .expressionAttributeNames(nameMap)
-                .expressionAttributeValues(valMap)
-                .returnValues(ReturnValue.ALL_NEW)
-                .build()).attributes());
+        return updateExpression.trim();
+    }
 
+    private void clearPendingUpdates() {
         setUpdates.clear();
         removeUpdates.clear();
         deleteUpdates.clear();
         addUpdates.clear();
         nameMap.clear();
         valMap.clear();
-
-        return itemOpt;
+        numberIncrements.clear();
+        stringSetAdditions.clear();
+        stringSetDeletions.clear();
     }
 
     private Map<String, AttributeValue> getItem() {
@@ -297,12 +422,16 @@ public class DynamoStateManager implements StateManager {
                 if (itemOpt.isEmpty()) {
                     log.info("Fetching dynamo item for table {} partitionKey {} sortKey {}",
                             tableName, keyStr, SORT_KEY);
+                    long startNanos = System.nanoTime();
                     itemOpt = Optional.of(Optional.ofNullable(dynamo.getItem(GetItemRequest.builder()
                                     .tableName(tableName)
-                                    .key(Map.of("pk", AttributeValue.fromS(keyStr),
-                                            "sk", AttributeValue.fromS(SORT_KEY)))
+                                    .key(getItemKey(keyStr))
                                     .build()).item())
                             .orElseGet(Maps::newHashMap));
+                    RunnerMetrics metrics = RunnerMetrics.get();
+                    metrics.recordDuration(RunnerMetrics.Phase.STATE_LOAD, System.nanoTime() - startNanos);
+                    metrics.increment(RunnerMetrics.Counter.STATE_READS, 1);
+                    metrics.increment(RunnerMetrics.Counter.STATE_READ_BYTES, getItemSizeEstimate(itemOpt.get()));
                 }
                 item = itemOpt.get();
             }
@@ -325,7 +454,49 @@ public class DynamoStateManager implements StateManager {
     }
 
     private String sanitizeFieldMapping(String fieldName) {
-        return fieldName.replaceAll("(^[^a-z])|[^a-zA-Z0-9]", "x");
+        return FIELD_MAPPING_SANITIZE_PATTERN.matcher(fieldName).replaceAll("x");
+    }
+
+    private static long parseLong(String number) {
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException ex) {
+            return new BigDecimal(number).longValue();
+        }
+    }
+
+    /**
+     * Rough size of the state held in memory, used to bound how much state is kept around.
+     */
+    synchronized long getSizeEstimate() {
+        return itemOpt.map(DynamoStateManager::getItemSizeEstimate)
+                .orElse(0L);
+    }
+
+    /**
+     * Estimated size of pending updates, the values written along with the names of the attributes they update.
+     */
+    synchronized long getPendingSizeEstimate() {
+        return nameMap.values().stream().mapToLong(String::length).sum()
+               + valMap.values().stream().mapToLong(DynamoStateManager::getValueSizeEstimate).sum();
+    }
+
+    static long getItemSizeEstimate(Map<String, AttributeValue> item) {
+        return item.entrySet().stream()
+                .mapToLong(entry -> entry.getKey().length() + getValueSizeEstimate(entry.getValue()))
+                .sum();
+    }
+
+    private static long getValueSizeEstimate(AttributeValue value) {
+        if (value.s() != null) {
+            return value.s().length();
+        } else if (value.n() != null) {
+            return value.n().length();
+        } else if (value.hasSs()) {
+            return value.ss().stream().mapToLong(String::length).sum();
+        } else {
+            return 1;
+        }
     }
 
     @Override
@@ -7,34 +7,190 @@ import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
 import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
 import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse.SQSBatchResponseBuilder;
 import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import io.dataspray.runner.dto.Request;
 import io.dataspray.runner.dto.sqs.SqsMessage;
-import io.dataspray.runner.dto.sqs.SqsRequest;
+import io.dataspray.runner.dto.sqs.SqsMessage.SqsMessageAttribute;
 import io.dataspray.runner.dto.web.HttpRequest;
 import io.dataspray.runner.dto.web.HttpResponse;
 import io.dataspray.runner.dto.web.HttpResponseException;
 import io.dataspray.runner.util.GsonUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.crac.Core;
+import org.crac.Resource;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 @Slf4j
-public abstract class Entrypoint implements RequestStreamHandler {
+public abstract class Entrypoint implements RequestStreamHandler, Resource {
 
+    /**
+     * Message attribute carrying a binary message as is, message body is only a placeholder in this case. Matches
+     * io.dataspray.store.impl.SqsStreamStore.BINARY_DATA_ATTRIBUTE_NAME
+     */
+    public static final String BINARY_DATA_ATTRIBUTE_NAME = "ds-data";
+    /**
+     * Message attribute carrying a reference to a message too large to be sent as is, message body is only a
+     * placeholder in this case. Matches io.dataspray.store.impl.SqsStreamStore.CLAIM_CHECK_ATTRIBUTE_NAME
+     */
+    public static final String CLAIM_CHECK_ATTRIBUTE_NAME = "ds-claim-check";
+    /** Matches io.dataspray.store.impl.S3ClaimCheckStore.CLAIM_CHECK_URI_PREFIX */
+    public static final String CLAIM_CHECK_URI_PREFIX = "s3://";
+    /**
+     * Content types of claim-checked messages that are binary, others are text. Matches
+     * io.dataspray.store.impl.GsonCustomerMessageSerde.isBinary
+     */
+    private static final ImmutableSet<String> BINARY_CONTENT_TYPES = ImmutableSet.of(
+            "application/octet-stream",
+            "application/avro",
+            "application/protobuf");
+
+    /**
+     * Whether the function may receive messages stored in the claim-check store, set when it has input streams.
+     * Matches io.dataspray.store.impl.LambdaDeployerImpl.DATASPRAY_CLAIM_CHECK_ENV
+     */
+    public static final String DATASPRAY_CLAIM_CHECK_ENV = "dataspray_claim_check";
+
+    /**
+     * Process messages of different message groups in a batch concurrently while keeping order within each group.
+     * Processors must be thread-safe when enabled.
+     */
+    public static final String DATASPRAY_CONCURRENT_MESSAGE_GROUPS_ENV = "dataspray_concurrent_message_groups";
+
+    /** Field holding SQS records, Lambda events use the former, {@link Request} the latter */
+    private static final ImmutableSet<String> SQS_RECORDS_FIELD_NAMES = ImmutableSet.of("Records", "records");
+
+    private final boolean concurrentMessageGroups = Boolean.parseBoolean(System.getenv(DATASPRAY_CONCURRENT_MESSAGE_GROUPS_ENV));
     private final Pattern sqsArnPattern = Pattern.compile("customer-(?<customer>[^-]+)-(?<queue>.+)");
+    private final AtomicBoolean firstInvocation = new AtomicBoolean(true);
+    private volatile boolean primed = false;
+
+    public Entrypoint() {
+        // With SnapStart, a snapshot is taken after init, priming before it saves the work on every cold start
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        long startNanos = System.nanoTime();
+        try {
+            prime();
+            primed = true;
+            log.info("Primed before checkpoint in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (Exception ex) {
+            log.warn("Failed to prime before checkpoint, continuing without", ex);
+        }
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        // Priming does not open connections, open them now instead of on the first message
+        long startNanos = System.nanoTime();
+        try {
+            warmUp();
+            log.info("Restored from checkpoint, primed {}, warmed up in {} ms", primed, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+        } catch (Exception ex) {
+            log.warn("Failed to warm up after restore, continuing without", ex);
+        }
+    }
 
+    /**
+     * Initializes what is otherwise initialized lazily on the first message. Must not open connections as they would
+     * not survive a snapshot restore. Subclasses may prime more, calling super.
+     */
+    protected void prime() {
+        GsonUtil.get().getAdapter(Request.class);
+        GsonUtil.get().getAdapter(SqsMessage.class);
+        GsonUtil.get().getAdapter(SQSBatchResponse.class);
+        GsonUtil.get().getAdapter(HttpResponse.class);
+        RawCoordinatorImpl.get().prime();
+        RunnerMetrics.get();
+        if (!Strings.isNullOrEmpty(System.getenv(StateManagerFactoryImpl.DATASPRAY_STATE_TABLE_NAME_ENV))) {
+            StateManagerFactoryImpl.getOrCreate().getDynamoClient();
+        }
+        if (Boolean.parseBoolean(System.getenv(DATASPRAY_CLAIM_CHECK_ENV))) {
+            S3Provider.get();
+        }
+    }
+
+    /**
+     * Opens connections ahead of the first message after a snapshot restore, concurrently to keep restore short.
+     * Best effort, clients that fail to connect do so on first use instead. Claim-checked messages are rare enough
+     * to leave S3 to connect on first use. Subclasses may warm up more, calling super.
+     */
+    protected void warmUp() {
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<Void>> futures = Lists.newArrayList();
+            futures.add(CompletableFuture.runAsync(RawCoordinatorImpl.get()::warmUp, executor));
+            if (!Strings.isNullOrEmpty(System.getenv(StateManagerFactoryImpl.DATASPRAY_STATE_TABLE_NAME_ENV))) {
+                futures.add(CompletableFuture.runAsync(StateManagerFactoryImpl.getOrCreate()::warmUp, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        }
+    }
+
+    /**
+     * Decodes the event as it is read. SQS records are decoded and handled one at a time, other events are bound as a
+     * whole.
+     */
     public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
-        Request event = GsonUtil.get().fromJson(new InputStreamReader(input), Request.class);
-        Object response = handleRequest(event, context);
-        try (var writer = new OutputStreamWriter(output)) {
+        Object response;
+        try (JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)))) {
+            reader.beginObject();
+            String firstName = reader.hasNext() ? reader.nextName() : null;
+            if (firstName != null
+                && SQS_RECORDS_FIELD_NAMES.contains(firstName)
+                && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                response = handleRequest(() -> handleSqsEvent(new SqsMessageIterator(reader)));
+            } else {
+                long startNanos = System.nanoTime();
+                JsonObject eventJson = new JsonObject();
+                if (firstName != null) {
+                    eventJson.add(firstName, JsonParser.parseReader(reader));
+                    while (reader.hasNext()) {
+                        eventJson.add(reader.nextName(), JsonParser.parseReader(reader));
+                    }
+                }
+                reader.endObject();
+                Request event = GsonUtil.get().fromJson(eventJson, Request.class);
+                RunnerMetrics.get().recordDuration(RunnerMetrics.Phase.DESERIALIZE, System.nanoTime() - startNanos);
+                response = handleRequest(event, context);
+            }
+        }
+        try (var writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
             GsonUtil.get().toJson(response, writer);
         }
     }
@@ -43,70 +199,277 @@ public abstract class Entrypoint implements RequestStreamHandler {
      * Entry point for the Lambda Function.
      */
     public Object handleRequest(Request event, Context context) {
-        try {
+        return handleRequest(() -> {
             if (event.isSqsRequest()) {
-                return handleSqsEvent(event);
+                return handleSqsEvent(event.getRecords().iterator());
             } else if (event.isHttpRequest()) {
                 return handleHttpRequest(event);
             } else {
                 throw new IllegalArgumentException("Unsupported event: " + event);
             }
+        });
+    }
+
+    private Object handleRequest(Supplier<Object> handler) {
+        if (firstInvocation.compareAndSet(true, false)) {
+            long startNanos = System.nanoTime();
+            try {
+                return handleRequestInternal(handler);
+            } finally {
+                log.info("First invocation took {} ms, primed {}", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), primed);
+            }
+        }
+        return handleRequestInternal(handler);
+    }
+
+    private Object handleRequestInternal(Supplier<Object> handler) {
+        boolean success = false;
+        try {
+            Object response = handler.get();
+
+            // Outputs are sent before state is committed. If sending outputs fails, state is discarded and the
+            // invocation is retried, outputs sent before the failure are sent again. Likewise if committing state
+            // fails after all outputs were sent, the retry sends them all again.
+            RawCoordinatorImpl.get().flushOutputs();
+            success = true;
+            return response;
         } finally {
-            StateManagerFactoryImpl.get()
-                    .ifPresent(StateManagerFactory::closeAll);
+            try {
+                if (success) {
+                    StateManagerFactoryImpl.get()
+                            .ifPresent(StateManagerFactory::closeAll);
+                } else {
+                    RawCoordinatorImpl.get().discardOutputs();
+                    StateManagerFactoryImpl.get()
+                            .ifPresent(StateManagerFactory::discardAll);
+                }
+            } finally {
+                // Includes state written on close
+                RunnerMetrics.get().flush();
+            }
         }
     }
 
     /**
      * Handle an SQS event containing one or more messages.
      */
-    private SQSBatchResponse handleSqsEvent(SqsRequest event) {
+    private SQSBatchResponse handleSqsEvent(Iterator<SqsMessage> records) {
         List<SQSBatchResponse.BatchItemFailure> failures = Lists.newArrayList();
         SQSBatchResponseBuilder responseBuilder = SQSBatchResponse.builder();
 
-        for (SqsMessage msg : event.getRecords()) {
-            try {
-                Matcher matcher = sqsArnPattern.matcher(msg.getEventSourceArn());
-                if (!matcher.matches()) {
-                    throw new RuntimeException("Failed to determine source queue from ARN:" + msg.getEventSourceArn());
+        // Handle each message as soon as it is decoded unless the whole batch is needed upfront
+        if (!concurrentMessageGroups && !isPrefetchEnabled()) {
+            int count = 0;
+            while (records.hasNext()) {
+                SqsMessage msg = records.next();
+                count++;
+                if (!handleSqsMessage(msg)) {
+                    failures.add(SQSBatchResponse.BatchItemFailure.builder()
+                            .withItemIdentifier(msg.getMessageId()).build());
                 }
+            }
+            log.info("SQS {} processed {} failed",
+                    count,
+                    failures.size());
+            return responseBuilder.withBatchItemFailures(failures).build();
+        }
+        List<SqsMessage> msgs = Lists.newArrayList(records);
 
-                String messageKey = msg.getAttributes().get("MessageGroupId");
-                if (Strings.isNullOrEmpty(messageKey)) {
-                    throw new RuntimeException("SQS message does not have a message group id used as a message key");
-                }
+        // Give the handler a chance to load what it needs for the whole batch at once
+        List<MessageMetadata> metadatas = Lists.newArrayListWithCapacity(msgs.size());
+        for (SqsMessage msg : msgs) {
+            try {
+                metadatas.add(getMetadata(msg));
+            } catch (RuntimeException ex) {
+                // Reported as failed below
+            }
+        }
+        try {
+            prefetch(metadatas, RawCoordinatorImpl.get());
+        } catch (Exception ex) {
+            log.warn("Failed to prefetch for SQS messages, continuing without", ex);
+        }
 
-                String messageId = msg.getAttributes().get("MessageDeduplicationId");
-                if (Strings.isNullOrEmpty(messageId)) {
-                    throw new RuntimeException("SQS message does not have a message deduplication id used as a message id");
+        if (concurrentMessageGroups) {
+            failures.addAll(handleSqsMessagesConcurrently(msgs));
+        } else {
+            for (SqsMessage msg : msgs) {
+                if (!handleSqsMessage(msg)) {
+                    failures.add(SQSBatchResponse.BatchItemFailure.builder()
+                            .withItemIdentifier(msg.getMessageId()).build());
                 }
-
-                this.stream(new MessageMetadata(
-                                StoreType.DATASPRAY,
-                                matcher.group("customer"),
-                                matcher.group("queue"),
-                                messageKey,
-                                messageId),
-                        msg.getBody(),
-                        RawCoordinatorImpl.get());
-            } catch (Throwable th) {
-                log.error("Failed to process SQS message", th);
-                failures.add(SQSBatchResponse.BatchItemFailure.builder()
-                        .withItemIdentifier(msg.getMessageId()).build());
             }
         }
 
         log.info("SQS {} processed {} failed",
-                event.getRecords().size(),
+                msgs.size(),
                 failures.size());
         return responseBuilder.withBatchItemFailures(failures).build();
     }
 
+    /**
+     * Decodes SQS records one at a time as they are iterated.
+     */
+    private static class SqsMessageIterator implements Iterator<SqsMessage> {
+        private final JsonReader reader;
+        private final TypeAdapter<SqsMessage> adapter = GsonUtil.get().getAdapter(SqsMessage.class);
+        private boolean isDone = false;
+
+        private SqsMessageIterator(JsonReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (isDone) {
+                return false;
+            }
+            try {
+                if (reader.hasNext()) {
+                    return true;
+                }
+                reader.endArray();
+                isDone = true;
+                return false;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public SqsMessage next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                long startNanos = System.nanoTime();
+                SqsMessage msg = adapter.read(reader);
+                RunnerMetrics.get().recordDuration(RunnerMetrics.Phase.DESERIALIZE, System.nanoTime() - startNanos);
+                return msg;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Processes messages of different message groups concurrently while keeping order within each group. Once a
+     * message fails, all later messages of its group are failed as well so that they are retried in order.
+     */
+    private List<SQSBatchResponse.BatchItemFailure> handleSqsMessagesConcurrently(List<SqsMessage> msgs) {
+        Map<String, List<SqsMessage>> msgsByGroup = msgs.stream().collect(Collectors.groupingBy(
+                msg -> Optional.ofNullable(msg.getAttributes())
+                        .map(attributes -> attributes.get("MessageGroupId"))
+                        .orElse(msg.getMessageId()),
+                LinkedHashMap::new,
+                Collectors.toList()));
+        List<SQSBatchResponse.BatchItemFailure> failures = Collections.synchronizedList(Lists.newArrayList());
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletableFuture.allOf(msgsByGroup.values().stream()
+                            .map(groupMsgs -> CompletableFuture.runAsync(() -> {
+                                boolean groupFailed = false;
+                                for (SqsMessage msg : groupMsgs) {
+                                    if (groupFailed || !handleSqsMessage(msg)) {
+                                        groupFailed = true;
+                                        failures.add(SQSBatchResponse.BatchItemFailure.builder()
+                                                .withItemIdentifier(msg.getMessageId()).build());
+                                    }
+                                }
+                            }, executor))
+                            .toArray(CompletableFuture[]::new))
+                    .join();
+        }
+        return failures;
+    }
+
+    /**
+     * Handle a single SQS message.
+     *
+     * @return Whether the message was processed successfully
+     */
+    private boolean handleSqsMessage(SqsMessage msg) {
+        RunnerMetrics metrics = RunnerMetrics.get();
+        metrics.increment(RunnerMetrics.Counter.RECORDS, 1);
+        long startNanos = System.nanoTime();
+        try {
+            MessageMetadata metadata = getMetadata(msg);
+            Optional<String> binaryDataOpt = getMessageAttribute(msg, BINARY_DATA_ATTRIBUTE_NAME)
+                    .map(SqsMessageAttribute::getBinaryValue);
+            Optional<String> claimCheckUriOpt = getMessageAttribute(msg, CLAIM_CHECK_ATTRIBUTE_NAME)
+                    .map(SqsMessageAttribute::getStringValue);
+            if (claimCheckUriOpt.isPresent()) {
+                try (ResponseInputStream<GetObjectResponse> data = getClaimCheck(claimCheckUriOpt.get())) {
+                    boolean binary = BINARY_CONTENT_TYPES.contains(Strings.nullToEmpty(data.response().contentType()));
+                    this.stream(metadata, data, binary, RawCoordinatorImpl.get());
+                }
+            } else if (binaryDataOpt.isPresent()) {
+                this.stream(metadata, Base64.getDecoder().decode(binaryDataOpt.get()), RawCoordinatorImpl.get());
+            } else {
+                this.stream(metadata, msg.getBody(), RawCoordinatorImpl.get());
+            }
+            return true;
+        } catch (Throwable th) {
+            log.error("Failed to process SQS message", th);
+            metrics.increment(RunnerMetrics.Counter.RECORD_FAILURES, 1);
+            return false;
+        } finally {
+            metrics.recordDuration(RunnerMetrics.Phase.PROCESS, System.nanoTime() - startNanos);
+        }
+    }
+
+    private MessageMetadata getMetadata(SqsMessage msg) {
+        Matcher matcher = sqsArnPattern.matcher(msg.getEventSourceArn());
+        if (!matcher.matches()) {
+            throw new RuntimeException("Failed to determine source queue from ARN:" + msg.getEventSourceArn());
+        }
+
+        String messageKey = msg.getAttributes().get("MessageGroupId");
+        if (Strings.isNullOrEmpty(messageKey)) {
+            throw new RuntimeException("SQS message does not have a message group id used as a message key");
+        }
+
+        String messageId = msg.getAttributes().get("MessageDeduplicationId");
+        if (Strings.isNullOrEmpty(messageId)) {
+            throw new RuntimeException("SQS message does not have a message deduplication id used as a message id");
+        }
+
+        return new MessageMetadata(
+                StoreType.DATASPRAY,
+                matcher.group("customer"),
+                matcher.group("queue"),
+                messageKey,
+                messageId);
+    }
+
+    private Optional<SqsMessageAttribute> getMessageAttribute(SqsMessage msg, String attributeName) {
+        return Optional.ofNullable(msg.getMessageAttributes())
+                .map(attributes -> attributes.get(attributeName));
+    }
+
+    /**
+     * Opens a stream to a message stored in the claim-check store, content is fetched as it is read.
+     */
+    private ResponseInputStream<GetObjectResponse> getClaimCheck(String claimCheckUri) {
+        if (!claimCheckUri.startsWith(CLAIM_CHECK_URI_PREFIX)) {
+            throw new RuntimeException("Unexpected claim-check location " + claimCheckUri);
+        }
+        String bucketAndKey = claimCheckUri.substring(CLAIM_CHECK_URI_PREFIX.length());
+        int bucketEndIndex = bucketAndKey.indexOf('/');
+        if (bucketEndIndex <= 0) {
+            throw new RuntimeException("Unexpected claim-check location " + claimCheckUri);
+        }
+        return S3Provider.get().getObject(GetObjectRequest.builder()
+                .bucket(bucketAndKey.substring(0, bucketEndIndex))
+                .key(bucketAndKey.substring(bucketEndIndex + 1))
+                .build());
+    }
+
     /**
      * Handle an HTTP request from Function URL.
      */
     private HttpResponse handleHttpRequest(HttpRequest request) {
         HttpResponse response;
+        long startNanos = System.nanoTime();
         try {
             response = web(request, RawCoordinatorImpl.get());
         } catch (HttpResponseException ex) {
@@ -115,6 +478,7 @@ public abstract class Entrypoint implements RequestStreamHandler {
             log.error("Failed to process HTTP request", ex);
             response = HttpResponse.builder().internalServerError().body("Fatal failure").build();
         }
+        RunnerMetrics.get().recordDuration(RunnerMetrics.Phase.PROCESS, System.nanoTime() - startNanos);
         log.info("HTTP {} {} {} {} {}",
                 request.getRequestContext().getHttp().getMethod(),
                 request.getRawPath(),
@@ -124,10 +488,48 @@ public abstract class Entrypoint implements RequestStreamHandler {
         return response;
     }
 
+    /**
+     * Whether {@link #prefetch} is to be called, requiring all messages of a batch to be decoded before any of them
+     * are processed.
+     */
+    protected boolean isPrefetchEnabled() {
+        return false;
+    }
+
+    /**
+     * Called with all messages of a batch before any of them are processed, such as to fetch their state in bulk.
+     * Failures are logged and otherwise ignored.
+     */
+    protected void prefetch(List<MessageMetadata> metadatas, RawCoordinator coordinator) {
+        // No-op by default
+    }
+
     protected void stream(MessageMetadata metadata, String data, RawCoordinator coordinator) {
         throw new RuntimeException("No handler defined for SQS events");
     }
 
+    /**
+     * Binary message received as is without Base64 encoding. Defaults to passing it Base64 encoded to
+     * {@link #stream(MessageMetadata, String, RawCoordinator)} for runners that do not handle binary messages.
+     */
+    protected void stream(MessageMetadata metadata, byte[] data, RawCoordinator coordinator) {
+        stream(metadata, Base64.getEncoder().encodeToString(data), coordinator);
+    }
+
+    /**
+     * Message too large to be sent as is, fetched from the claim-check store while it is being read. Defaults to
+     * reading it fully and passing a binary message to {@link #stream(MessageMetadata, byte[], RawCoordinator)} and
+     * a text message decoded as UTF-8 to {@link #stream(MessageMetadata, String, RawCoordinator)}, same as if it
+     * was sent as is.
+     */
+    protected void stream(MessageMetadata metadata, InputStream data, boolean binary, RawCoordinator coordinator) throws IOException {
+        if (binary) {
+            stream(metadata, data.readAllBytes(), coordinator);
+        } else {
+            stream(metadata, new String(data.readAllBytes(), StandardCharsets.UTF_8), coordinator);
+        }
+    }
+
     protected HttpResponse web(HttpRequest request, RawCoordinator coordinator) {
         throw new RuntimeException("No handler defined for web endpoints");
     }
@@ -6,6 +6,7 @@ import jakarta.annotation.Nullable;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
 import java.time.Duration;
+import java.util.List;
 
 public interface RawCoordinator {
 
@@ -13,5 +14,13 @@ public interface RawCoordinator {
 
     StateManager getStateManager(String[] key, @Nullable Duration ttl);
 
+    /**
+     * Fetch state for the given keys in bulk ahead of processing messages that use them. Optional, by default state is
+     * fetched on first use.
+     */
+    default void prefetchStateManagers(List<String[]> keys) {
+        // No-op
+    }
+
     DynamoDbClient getDynamoClient();
 }
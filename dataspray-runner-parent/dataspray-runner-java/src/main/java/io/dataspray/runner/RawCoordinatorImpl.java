@@ -23,16 +23,43 @@
 package io.dataspray.runner;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.reflect.TypeToken;
 import io.dataspray.client.Access;
 import io.dataspray.client.DataSprayClient;
+import io.dataspray.runner.util.GsonUtil;
 import io.dataspray.stream.ingest.client.ApiException;
+import io.dataspray.stream.ingest.client.HealthApi;
 import io.dataspray.stream.ingest.client.IngestApi;
 import jakarta.annotation.Nullable;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.sqs.model.BatchResultErrorEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
+import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SqsException;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
 
 @Slf4j
 public class RawCoordinatorImpl implements RawCoordinator {
@@ -43,10 +70,51 @@ public class RawCoordinatorImpl implements RawCoordinator {
     public static final String DATASPRAY_ORGANIZATION_NAME_ENV = "dataspray_organization_name";
     /** Matches io.dataspray.store.LambdaDeployerImpl.DATASPRAY_ENDPOINT_ENV */
     public static final String DATASPRAY_ENDPOINT_ENV = "dataspray_endpoint";
+    /**
+     * Queue outgoing messages during an invocation and send them concurrently once all input is processed. A failure
+     * to send fails the invocation as a whole instead of the message that produced the output.
+     */
+    public static final String DATASPRAY_OUTPUT_BUFFER_ENV = "dataspray_output_buffer";
+    /**
+     * Stream names keyed by output topic name for topics that only write to streams, messages to these topics are
+     * sent directly to their queues instead of through the ingest API. Matches
+     * io.dataspray.store.LambdaDeployerImpl.DATASPRAY_DIRECT_OUTPUTS_ENV
+     */
+    public static final String DATASPRAY_DIRECT_OUTPUTS_ENV = "dataspray_direct_outputs";
+    /**
+     * Queue URL with {@link #DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER} in place of the stream name. Matches
+     * io.dataspray.store.LambdaDeployerImpl.DATASPRAY_DIRECT_OUTPUT_QUEUE_URL_ENV
+     */
+    public static final String DATASPRAY_DIRECT_OUTPUT_QUEUE_URL_ENV = "dataspray_direct_output_queue_url";
+    /** Matches io.dataspray.store.LambdaDeployerImpl.DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER */
+    public static final String DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER = "{stream}";
+    /**
+     * Table, key and version of the topic definitions direct outputs were resolved from. Direct outputs are used only
+     * while the version is unchanged. Matches io.dataspray.store.LambdaDeployerImpl.DATASPRAY_DIRECT_OUTPUTS_TOPICS_ENV
+     */
+    public static final String DATASPRAY_DIRECT_OUTPUTS_TOPICS_ENV = "dataspray_direct_outputs_topics";
+    /** Same as io.dataspray.store.impl.DynamoTopicStore.CACHE_REFRESH_IN_SECONDS, ingest routes on topics as stale */
+    private static final Duration DIRECT_OUTPUTS_TOPICS_CHECK_INTERVAL = Duration.ofSeconds(10);
+    /** Matches io.dataspray.store.impl.DynamoTopicStore.VERSION_ATTR_NAME */
+    private static final String TOPICS_VERSION_ATTR_NAME = "version";
+    /** SQS limit of entries in a single SendMessageBatch request */
+    public static final int SEND_BATCH_MAX_ENTRIES = 10;
+    /** SQS limit of a single message as well as the sum of all messages in a SendMessageBatch request */
+    public static final int SQS_MESSAGE_MAX_BYTES = 256 * 1024;
     private static volatile RawCoordinatorImpl INSTANCE;
 
     private volatile Optional<IngestApi> ingestApiOpt = Optional.empty();
     private volatile Optional<String> organizationNameOpt = Optional.empty();
+    private final boolean outputBuffer = Boolean.parseBoolean(System.getenv(DATASPRAY_OUTPUT_BUFFER_ENV));
+    private final List<BufferedMessage> bufferedMessages = Lists.newArrayList();
+    private final Optional<String> directOutputQueueUrlOpt = Optional.ofNullable(Strings.emptyToNull(System.getenv(DATASPRAY_DIRECT_OUTPUT_QUEUE_URL_ENV)));
+    private final Optional<DirectOutputsTopics> directOutputsTopicsOpt = parseDirectOutputsTopics(System.getenv(DATASPRAY_DIRECT_OUTPUTS_TOPICS_ENV));
+    private final Map<String, List<String>> directOutputStreamNames = directOutputQueueUrlOpt.isPresent() && directOutputsTopicsOpt.isPresent()
+            ? parseDirectOutputStreamNames(System.getenv(DATASPRAY_DIRECT_OUTPUTS_ENV))
+            : Map.of();
+    private final Object directOutputsCheckLock = new Object();
+    private Optional<Long> directOutputsCheckedAtNanosOpt = Optional.empty();
+    private volatile boolean directOutputsStale = false;
 
     private RawCoordinatorImpl() {
     }
@@ -66,7 +134,17 @@ public class RawCoordinatorImpl implements RawCoordinator {
     public void send(String messageKey, byte[] data, StoreType storeType, String storeName, String streamName, @Nullable String messageId) {
         switch (storeType) {
             case DATASPRAY:
-                sendToDataSpray(messageKey, data, storeName, streamName, messageId);
+                RunnerMetrics.get().increment(RunnerMetrics.Counter.OUTPUTS, 1);
+                RunnerMetrics.get().increment(RunnerMetrics.Counter.OUTPUT_BYTES, data.length);
+                if (outputBuffer) {
+                    synchronized (bufferedMessages) {
+                        bufferedMessages.add(new BufferedMessage(messageKey, data, storeName, streamName, messageId));
+                    }
+                } else {
+                    long startNanos = System.nanoTime();
+                    sendToDataSpray(messageKey, data, storeName, streamName, messageId);
+                    RunnerMetrics.get().recordDuration(RunnerMetrics.Phase.OUTPUT_SEND, System.nanoTime() - startNanos);
+                }
                 break;
             case KAFKA:
             default:
@@ -80,12 +158,298 @@ public class RawCoordinatorImpl implements RawCoordinator {
         return StateManagerFactoryImpl.getOrCreate().getStateManager(key, Optional.ofNullable(ttl));
     }
 
+    @Override
+    public void prefetchStateManagers(List<String[]> keys) {
+        StateManagerFactoryImpl.getOrCreate().prefetch(keys);
+    }
+
     @Override
     public DynamoDbClient getDynamoClient() {
         return StateManagerFactoryImpl.getOrCreate().getDynamoClient();
     }
 
+    /**
+     * Sends all buffered messages. Messages sent directly to a queue are sent in batches in the order they were queued.
+     * Messages sent through the ingest API for the same stream and key are sent one after another in the order they
+     * were queued. Everything else is sent concurrently.
+     */
+    public void flushOutputs() {
+        List<BufferedMessage> messages;
+        synchronized (bufferedMessages) {
+            if (bufferedMessages.isEmpty()) {
+                return;
+            }
+            messages = List.copyOf(bufferedMessages);
+            bufferedMessages.clear();
+        }
+        Map<String, List<DirectMessage>> directMessagesByQueueUrl = Maps.newLinkedHashMap();
+        List<BufferedMessage> ingestMessages = Lists.newArrayList();
+        for (BufferedMessage message : messages) {
+            getDirectMessage(message).ifPresentOrElse(
+                    directMessage -> directMessage.getQueueUrls().forEach(queueUrl -> directMessagesByQueueUrl
+                            .computeIfAbsent(queueUrl, k -> Lists.newArrayList())
+                            .add(directMessage)),
+                    () -> ingestMessages.add(message));
+        }
+        Collection<List<BufferedMessage>> ingestMessagesInOrder = ingestMessages.stream().collect(Collectors.groupingBy(
+                message -> List.of(message.getStreamName(), message.getMessageKey()),
+                LinkedHashMap::new,
+                Collectors.toList())).values();
+        log.info("Sending {} buffered messages directly to {} queues and in {} sequences through ingest",
+                messages.size(), directMessagesByQueueUrl.size(), ingestMessagesInOrder.size());
+        long startNanos = System.nanoTime();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<CompletableFuture<Void>> futures = Lists.newArrayList();
+            directMessagesByQueueUrl.forEach((queueUrl, queueMessages) -> futures.add(CompletableFuture.runAsync(() ->
+                    sendBatchesToQueue(queueUrl, queueMessages), executor)));
+            ingestMessagesInOrder.forEach(sequence -> futures.add(CompletableFuture.runAsync(() ->
+                    sequence.forEach(message -> sendToIngest(
+                            message.getMessageKey(),
+                            message.getData(),
+                            message.getStoreName(),
+                            message.getStreamName(),
+                            message.getMessageId())), executor)));
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        }
+        RunnerMetrics.get().recordDuration(RunnerMetrics.Phase.OUTPUT_SEND, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Drops all buffered messages without sending them.
+     */
+    public void discardOutputs() {
+        synchronized (bufferedMessages) {
+            bufferedMessages.clear();
+        }
+    }
+
+    /**
+     * Builds clients ahead of the first message without opening any connections.
+     */
+    void prime() {
+        if (!Strings.isNullOrEmpty(System.getenv(DATASPRAY_API_KEY_ENV))) {
+            getIngestApi();
+            getOrganizationName();
+        }
+        if (!directOutputStreamNames.isEmpty()) {
+            SqsProvider.get();
+            DynamoProvider.get();
+        }
+    }
+
+    /**
+     * Opens connections ahead of the first message, such as after a snapshot restore. Best effort, failures are only
+     * logged and connections are opened on first use instead.
+     */
+    void warmUp() {
+        if (!Strings.isNullOrEmpty(System.getenv(DATASPRAY_API_KEY_ENV))) {
+            try {
+                // Shares the HTTP client and so its connection pool with the ingest API
+                new HealthApi(getIngestApi().getApiClient()).ping();
+            } catch (ApiException | RuntimeException ex) {
+                log.warn("Failed to warm up connection to DataSpray", ex);
+            }
+        }
+        if (!directOutputStreamNames.isEmpty()) {
+            // Doubles as the first check of the topics version, failures leave outputs going through ingest
+            isDirectOutputsCurrent();
+        }
+    }
+
     private void sendToDataSpray(String messageKey, byte[] data, String storeName, String streamName, @Nullable String messageId) {
+        BufferedMessage message = new BufferedMessage(messageKey, data, storeName, streamName, messageId);
+        Optional<DirectMessage> directMessageOpt = getDirectMessage(message);
+        if (directMessageOpt.isEmpty()) {
+            sendToIngest(messageKey, data, storeName, streamName, messageId);
+            return;
+        }
+        for (String queueUrl : directMessageOpt.get().getQueueUrls()) {
+            try {
+                SqsProvider.get().sendMessage(SendMessageRequest.builder()
+                        .queueUrl(queueUrl)
+                        .messageGroupId(messageKey)
+                        .messageDeduplicationId(messageId)
+                        .messageBody(directMessageOpt.get().getBody())
+                        .build());
+            } catch (SqsException ex) {
+                checkDirectOutputsRevoked(queueUrl, ex);
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Sends messages to a queue in as few batches as SQS limits allow, one batch after another to keep their order.
+     */
+    private void sendBatchesToQueue(String queueUrl, List<DirectMessage> messages) {
+        List<SendMessageBatchRequestEntry> entries = Lists.newArrayList();
+        long entriesBytes = 0;
+        for (DirectMessage message : messages) {
+            long messageBytes = message.getMessage().getData().length;
+            if (!entries.isEmpty()
+                && (entries.size() >= SEND_BATCH_MAX_ENTRIES
+                    || entriesBytes + messageBytes > SQS_MESSAGE_MAX_BYTES)) {
+                sendBatchToQueue(queueUrl, entries);
+                entries = Lists.newArrayList();
+                entriesBytes = 0;
+            }
+            entries.add(SendMessageBatchRequestEntry.builder()
+                    .id(Integer.toString(entries.size()))
+                    .messageGroupId(message.getMessage().getMessageKey())
+                    .messageDeduplicationId(message.getMessage().getMessageId())
+                    .messageBody(message.getBody())
+                    .build());
+            entriesBytes += messageBytes;
+        }
+        if (!entries.isEmpty()) {
+            sendBatchToQueue(queueUrl, entries);
+        }
+    }
+
+    private void sendBatchToQueue(String queueUrl, List<SendMessageBatchRequestEntry> entries) {
+        SendMessageBatchResponse response;
+        try {
+            response = SqsProvider.get().sendMessageBatch(SendMessageBatchRequest.builder()
+                    .queueUrl(queueUrl)
+                    .entries(entries)
+                    .build());
+        } catch (SqsException ex) {
+            checkDirectOutputsRevoked(queueUrl, ex);
+            throw ex;
+        }
+        if (!response.failed().isEmpty()) {
+            BatchResultErrorEntry failed = response.failed().get(0);
+            log.error("Failed to send {} of {} messages to queue {}, first failure {}: {}",
+                    response.failed().size(), entries.size(), queueUrl, failed.code(), failed.message());
+            throw new RuntimeException("Failed to send " + response.failed().size() + " messages to queue " + queueUrl
+                                       + ": " + failed.code() + ": " + failed.message());
+        }
+    }
+
+    /**
+     * Message as ingest would send it to the queues of its topic, empty if it has to go through the ingest API.
+     * <p>
+     * Ingest receives outputs as JSON and sends them as text in the body, identical messages are deduplicated by
+     * content unless a message id is given. Sending directly does the same.
+     */
+    private Optional<DirectMessage> getDirectMessage(BufferedMessage message) {
+        List<String> streamNames = directOutputStreamNames.get(message.getStreamName());
+        if (streamNames == null
+            // Large messages are stored in the claim-check store by ingest
+            || message.getData().length > SQS_MESSAGE_MAX_BYTES) {
+            return Optional.empty();
+        }
+        Optional<String> bodyOpt = getDirectMessageBody(message.getData());
+        if (bodyOpt.isEmpty() || !isDirectOutputsCurrent()) {
+            return Optional.empty();
+        }
+        return Optional.of(new DirectMessage(
+                message,
+                bodyOpt.get(),
+                streamNames.stream()
+                        .map(streamName -> directOutputQueueUrlOpt.get().replace(DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER, streamName))
+                        .toList()));
+    }
+
+    /**
+     * Whether topics are still as they were when direct outputs were resolved at deploy time. The version is checked
+     * periodically; once changed, all outputs go through the ingest API until the task is deployed again. If the check
+     * itself fails, outputs go through the ingest API until it succeeds.
+     */
+    private boolean isDirectOutputsCurrent() {
+        if (directOutputsStale) {
+            return false;
+        }
+        synchronized (directOutputsCheckLock) {
+            long nowNanos = System.nanoTime();
+            if (directOutputsCheckedAtNanosOpt.isPresent()
+                && nowNanos - directOutputsCheckedAtNanosOpt.get() < DIRECT_OUTPUTS_TOPICS_CHECK_INTERVAL.toNanos()) {
+                return !directOutputsStale;
+            }
+            DirectOutputsTopics topics = directOutputsTopicsOpt.get();
+            Map<String, AttributeValue> versionItem;
+            try {
+                versionItem = DynamoProvider.get().getItem(GetItemRequest.builder()
+                                .tableName(topics.getTableName())
+                                .key(Maps.transformValues(topics.getKey(), AttributeValue::fromS))
+                                .projectionExpression("#v")
+                                .expressionAttributeNames(Map.of("#v", TOPICS_VERSION_ATTR_NAME))
+                                .build())
+                        .item();
+            } catch (SdkException ex) {
+                log.warn("Failed to check topics version, sending outputs through ingest", ex);
+                return false;
+            }
+            AttributeValue versionAttr = versionItem == null ? null : versionItem.get(TOPICS_VERSION_ATTR_NAME);
+            if (versionAttr == null || !Long.toString(topics.getVersion()).equals(versionAttr.n())) {
+                log.warn("Topics changed since deploy from version {} to {}, sending all outputs through ingest until redeployed",
+                        topics.getVersion(), versionAttr == null ? null : versionAttr.n());
+                directOutputsStale = true;
+                return false;
+            }
+            directOutputsCheckedAtNanosOpt = Optional.of(nowNanos);
+            return true;
+        }
+    }
+
+    /**
+     * Permission to send directly is removed once a later deploy no longer uses direct outputs, while this version
+     * may still be running. The failed invocation is retried and everything goes through the ingest API from then on.
+     */
+    private void checkDirectOutputsRevoked(String queueUrl, SqsException ex) {
+        if (ex.statusCode() == 403) {
+            log.warn("Not permitted to send to queue {} directly anymore, sending all outputs through ingest", queueUrl);
+            directOutputsStale = true;
+        }
+    }
+
+    /**
+     * The message as UTF-8 text, empty if it is not valid UTF-8 or has characters SQS does not allow in which case
+     * ingest handles it the way it always has.
+     */
+    private static Optional<String> getDirectMessageBody(byte[] data) {
+        String body;
+        try {
+            body = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data))
+                    .toString();
+        } catch (CharacterCodingException ex) {
+            return Optional.empty();
+        }
+        if (body.isEmpty() || !body.codePoints().allMatch(RawCoordinatorImpl::isSqsAllowedCodePoint)) {
+            return Optional.empty();
+        }
+        return Optional.of(body);
+    }
+
+    /** Characters allowed in a message body by SQS */
+    private static boolean isSqsAllowedCodePoint(int codePoint) {
+        return codePoint == 0x9
+               || codePoint == 0xA
+               || codePoint == 0xD
+               || (codePoint >= 0x20 && codePoint <= 0xD7FF)
+               || (codePoint >= 0xE000 && codePoint <= 0xFFFD)
+               || (codePoint >= 0x10000 && codePoint <= 0x10FFFF);
+    }
+
+    private static Map<String, List<String>> parseDirectOutputStreamNames(@Nullable String directOutputsStr) {
+        if (Strings.isNullOrEmpty(directOutputsStr)) {
+            return Map.of();
+        }
+        return GsonUtil.get().fromJson(directOutputsStr, new TypeToken<Map<String, List<String>>>() {
+        }.getType());
+    }
+
+    private static Optional<DirectOutputsTopics> parseDirectOutputsTopics(@Nullable String directOutputsTopicsStr) {
+        if (Strings.isNullOrEmpty(directOutputsTopicsStr)) {
+            return Optional.empty();
+        }
+        return Optional.of(GsonUtil.get().fromJson(directOutputsTopicsStr, DirectOutputsTopics.class));
+    }
+
+    private void sendToIngest(String messageKey, byte[] data, String storeName, String streamName, @Nullable String messageId) {
         try {
             getIngestApi().message(getOrganizationName(), streamName, messageKey, data, messageId);
         } catch (ApiException ex) {
@@ -136,4 +500,37 @@ public class RawCoordinatorImpl implements RawCoordinator {
         }
         return organizationNameOpt.get();
     }
+
+    @Value
+    private static class DirectMessage {
+        @NonNull
+        BufferedMessage message;
+        @NonNull
+        String body;
+        @NonNull
+        List<String> queueUrls;
+    }
+
+    @Value
+    private static class DirectOutputsTopics {
+        @NonNull
+        String tableName;
+        @NonNull
+        Map<String, String> key;
+        long version;
+    }
+
+    @Value
+    private static class BufferedMessage {
+        @NonNull
+        String messageKey;
+        @NonNull
+        byte[] data;
+        @NonNull
+        String storeName;
+        @NonNull
+        String streamName;
+        @Nullable
+        String messageId;
+    }
 }
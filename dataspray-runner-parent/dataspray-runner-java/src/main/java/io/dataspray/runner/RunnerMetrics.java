@@ -0,0 +1,335 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.runner;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.dataspray.runner.util.GsonUtil;
+import jakarta.annotation.Nullable;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and counters of a single invocation, exported once the invocation completes. Disabled unless
+ * {@link #DATASPRAY_METRICS_ENV} is set, recording is then a no-op.
+ */
+@Slf4j
+public class RunnerMetrics {
+
+    /** Emit metrics of each invocation as CloudWatch Embedded Metric Format log lines */
+    public static final String DATASPRAY_METRICS_ENV = "dataspray_metrics";
+    public static final String NAMESPACE = "DataSpray/Runner";
+    /** Set by Lambda to the name of the function */
+    private static final String FUNCTION_NAME_ENV = "AWS_LAMBDA_FUNCTION_NAME";
+    /** Embedded Metric Format limit of distinct values of a single metric */
+    public static final int HISTOGRAM_MAX_VALUES = 100;
+    /** Significant digits values are rounded to, grouping similar values together */
+    private static final MathContext HISTOGRAM_VALUE_PRECISION = new MathContext(2);
+
+    public enum Phase {
+        DESERIALIZE("Deserialize"),
+        PROCESS("Process"),
+        STATE_LOAD("StateLoad"),
+        STATE_FLUSH("StateFlush"),
+        OUTPUT_SEND("OutputSend");
+
+        @Getter
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    public enum Counter {
+        RECORDS("Records", "Count"),
+        RECORD_FAILURES("RecordFailures", "Count"),
+        STATE_READS("StateReads", "Count"),
+        STATE_READ_BYTES("StateReadBytes", "Bytes"),
+        STATE_WRITES("StateWrites", "Count"),
+        STATE_WRITE_BYTES("StateWriteBytes", "Bytes"),
+        OUTPUTS("Outputs", "Count"),
+        OUTPUT_BYTES("OutputBytes", "Bytes");
+
+        @Getter
+        private final String metricName;
+        @Getter
+        private final String unit;
+
+        Counter(String metricName, String unit) {
+            this.metricName = metricName;
+            this.unit = unit;
+        }
+    }
+
+    private static volatile RunnerMetrics INSTANCE;
+
+    private final Optional<Exporter> exporterOpt;
+    private Map<Phase, Histogram> histograms = new EnumMap<>(Phase.class);
+    private Map<Counter, Long> counters = new EnumMap<>(Counter.class);
+
+    private RunnerMetrics(Optional<Exporter> exporterOpt) {
+        this.exporterOpt = exporterOpt;
+    }
+
+    public static RunnerMetrics get() {
+        if (INSTANCE == null) {
+            synchronized (RunnerMetrics.class) {
+                if (INSTANCE == null) {
+                    INSTANCE = new RunnerMetrics(Boolean.parseBoolean(System.getenv(DATASPRAY_METRICS_ENV))
+                            ? Optional.of(new EmfExporter(System.getenv(FUNCTION_NAME_ENV), System.out))
+                            : Optional.empty());
+                }
+            }
+        }
+        return INSTANCE;
+    }
+
+    @VisibleForTesting
+    public static void override(@Nullable Exporter exporter) {
+        INSTANCE = new RunnerMetrics(Optional.ofNullable(exporter));
+    }
+
+    public boolean isEnabled() {
+        return exporterOpt.isPresent();
+    }
+
+    public void recordDuration(Phase phase, long durationNanos) {
+        if (!isEnabled()) {
+            return;
+        }
+        double durationMillis = (double) durationNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        synchronized (this) {
+            histograms.computeIfAbsent(phase, p -> new Histogram()).record(durationMillis);
+        }
+    }
+
+    public void increment(Counter counter, long value) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            counters.merge(counter, value, Long::sum);
+        }
+    }
+
+    /**
+     * Exports everything recorded since the last flush. Failures are logged and otherwise ignored.
+     */
+    public void flush() {
+        if (!isEnabled()) {
+            return;
+        }
+        Snapshot snapshot;
+        synchronized (this) {
+            if (histograms.isEmpty() && counters.isEmpty()) {
+                return;
+            }
+            snapshot = new Snapshot(ImmutableMap.copyOf(histograms), ImmutableMap.copyOf(counters));
+            histograms = new EnumMap<>(Phase.class);
+            counters = new EnumMap<>(Counter.class);
+        }
+        try {
+            exporterOpt.get().export(snapshot);
+        } catch (Exception ex) {
+            log.warn("Failed to export metrics, continuing without", ex);
+        }
+    }
+
+    public interface Exporter {
+        void export(Snapshot snapshot);
+    }
+
+    @Value
+    public static class Snapshot {
+        @NonNull
+        ImmutableMap<Phase, Histogram> histograms;
+        @NonNull
+        ImmutableMap<Counter, Long> counters;
+
+        public Optional<Histogram> getHistogram(Phase phase) {
+            return Optional.ofNullable(histograms.get(phase));
+        }
+
+        public long getCounter(Counter counter) {
+            return counters.getOrDefault(counter, 0L);
+        }
+    }
+
+    /**
+     * Distribution of values in milliseconds, similar values are counted together to stay within
+     * {@link #HISTOGRAM_MAX_VALUES}.
+     */
+    public static class Histogram {
+        private final NavigableMap<Double, Long> valueCounts = new TreeMap<>();
+        @Getter
+        private long count = 0;
+        @Getter
+        private double sum = 0;
+        @Getter
+        private double min = Double.MAX_VALUE;
+        @Getter
+        private double max = 0;
+
+        private Histogram() {
+        }
+
+        private void record(double value) {
+            count++;
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+
+            double roundedValue = BigDecimal.valueOf(value).round(HISTOGRAM_VALUE_PRECISION).doubleValue();
+            if (!valueCounts.containsKey(roundedValue) && valueCounts.size() >= HISTOGRAM_MAX_VALUES) {
+                // Out of distinct values, count towards the closest existing one
+                Double lower = valueCounts.floorKey(roundedValue);
+                Double higher = valueCounts.ceilingKey(roundedValue);
+                roundedValue = lower == null || (higher != null && higher - roundedValue < roundedValue - lower)
+                        ? higher : lower;
+            }
+            valueCounts.merge(roundedValue, 1L, Long::sum);
+        }
+
+        public ImmutableSortedMap<Double, Long> getValueCounts() {
+            return ImmutableSortedMap.copyOf(valueCounts);
+        }
+    }
+
+    /**
+     * Writes metrics as a single line in the CloudWatch Embedded Metric Format, Lambda sends standard output to
+     * CloudWatch Logs which extracts the metrics without any API call.
+     */
+    public static class EmfExporter implements Exporter {
+        @Nullable
+        private final String functionName;
+        private final PrintStream out;
+
+        public EmfExporter(@Nullable String functionName, PrintStream out) {
+            this.functionName = Strings.emptyToNull(functionName);
+            this.out = out;
+        }
+
+        @Override
+        public void export(Snapshot snapshot) {
+            out.println(GsonUtil.get().toJson(toEmf(snapshot, System.currentTimeMillis())));
+        }
+
+        @VisibleForTesting
+        JsonObject toEmf(Snapshot snapshot, long timestampMillis) {
+            JsonObject emf = new JsonObject();
+            JsonArray metrics = new JsonArray();
+            snapshot.getHistograms().forEach((phase, histogram) -> {
+                metrics.add(getMetricDefinition(phase.getMetricName(), "Milliseconds"));
+                JsonArray values = new JsonArray();
+                JsonArray counts = new JsonArray();
+                histogram.getValueCounts().forEach((value, count) -> {
+                    values.add(value);
+                    counts.add(count);
+                });
+                JsonObject histogramJson = new JsonObject();
+                histogramJson.add("Values", values);
+                histogramJson.add("Counts", counts);
+                histogramJson.addProperty("Max", histogram.getMax());
+                histogramJson.addProperty("Min", histogram.getMin());
+                histogramJson.addProperty("Count", histogram.getCount());
+                histogramJson.addProperty("Sum", histogram.getSum());
+                emf.add(phase.getMetricName(), histogramJson);
+            });
+            snapshot.getCounters().forEach((counter, value) -> {
+                metrics.add(getMetricDefinition(counter.getMetricName(), counter.getUnit()));
+                emf.addProperty(counter.getMetricName(), value);
+            });
+
+            JsonArray dimensionSet = new JsonArray();
+            if (functionName != null) {
+                dimensionSet.add("FunctionName");
+                emf.addProperty("FunctionName", functionName);
+            }
+            JsonArray dimensions = new JsonArray();
+            dimensions.add(dimensionSet);
+            JsonObject directive = new JsonObject();
+            directive.addProperty("Namespace", NAMESPACE);
+            directive.add("Dimensions", dimensions);
+            directive.add("Metrics", metrics);
+            JsonArray directives = new JsonArray();
+            directives.add(directive);
+            JsonObject metadata = new JsonObject();
+            metadata.addProperty("Timestamp", timestampMillis);
+            metadata.add("CloudWatchMetrics", directives);
+            emf.add("_aws", metadata);
+            return emf;
+        }
+
+        private JsonObject getMetricDefinition(String name, String unit) {
+            JsonObject definition = new JsonObject();
+            definition.addProperty("Name", name);
+            definition.addProperty("Unit", unit);
+            return definition;
+        }
+    }
+
+    /**
+     * Keeps exported metrics in memory, such as for tests to assert on.
+     */
+    public static class LocalExporter implements Exporter {
+        private final Map<Counter, Long> counters = Maps.newEnumMap(Counter.class);
+        private final Map<Phase, Long> durationCounts = Maps.newEnumMap(Phase.class);
+        @Getter
+        private volatile Optional<Snapshot> lastSnapshot = Optional.empty();
+
+        @Override
+        public synchronized void export(Snapshot snapshot) {
+            snapshot.getCounters().forEach((counter, value) -> counters.merge(counter, value, Long::sum));
+            snapshot.getHistograms().forEach((phase, histogram) -> durationCounts.merge(phase, histogram.getCount(), Long::sum));
+            lastSnapshot = Optional.of(snapshot);
+        }
+
+        /** Total of a counter across all exported snapshots */
+        public synchronized long getCounter(Counter counter) {
+            return counters.getOrDefault(counter, 0L);
+        }
+
+        /** Number of durations recorded for a phase across all exported snapshots */
+        public synchronized long getDurationCount(Phase phase) {
+            return durationCounts.getOrDefault(phase, 0L);
+        }
+    }
+}
@@ -47,6 +47,10 @@ public interface StateManager extends AutoCloseable {
 
     void addToNumber(String key, Number increment);
 
+    long getLong(String key);
+
+    void addToLong(String key, long increment);
+
 
     Set<String> getStringSet(String key);
 
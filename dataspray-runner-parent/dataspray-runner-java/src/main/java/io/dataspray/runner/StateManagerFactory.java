@@ -5,6 +5,7 @@ package io.dataspray.runner;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -17,9 +18,26 @@ public interface StateManagerFactory {
 
     StateManager getStateManager(String[] key, Optional<Duration> ttl);
 
+    /**
+     * Fetch state for the given keys in bulk ahead of time to be used by subsequent calls to
+     * {@link #getStateManager} within the same invocation.
+     */
+    void prefetch(List<String[]> keys);
+
     DynamoDbClient getDynamoClient();
 
+    /**
+     * Opens a connection to the state table ahead of the first message, such as after a snapshot restore. Best
+     * effort, failures are only logged.
+     */
+    void warmUp();
+
     void flushAll();
 
     void closeAll();
+
+    /**
+     * Drops all state managers along with any of their pending updates, such as when an invocation failed as a whole.
+     */
+    void discardAll();
 }
@@ -23,30 +23,101 @@
 package io.dataspray.runner;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.gson.Gson;
+import io.dataspray.runner.util.StringSerdeUtil;
+import lombok.NonNull;
 import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchGetItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.KeysAndAttributes;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItem;
+import software.amazon.awssdk.services.dynamodb.model.TransactWriteItemsRequest;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkState;
 
 @Slf4j
 public class StateManagerFactoryImpl implements StateManagerFactory {
 
     /** Matches io.dataspray.store.LambdaDeployerImpl.DATASPRAY_STATE_TABLE_NAME_ENV */
     public static final String DATASPRAY_STATE_TABLE_NAME_ENV = "dataspray_state_table_name";
+    /**
+     * Keep loaded state across invocations of a warm function instead of fetching it again. Only safe if no other
+     * function instance modifies the same state, such as when limited to a single concurrent instance.
+     */
+    public static final String DATASPRAY_STATE_CACHE_WARM_ENV = "dataspray_state_cache_warm";
+    /**
+     * Commit all state updates of an invocation in a single all-or-nothing transaction so that either all or none of
+     * them are written. State updates of messages reported as failed are committed as well and are applied again when
+     * those messages are retried. Limited to {@link #TRANSACT_WRITE_MAX_ITEMS} updated keys.
+     * <p>
+     * Otherwise updates of different keys are committed concurrently and independently. If some of them fail, the
+     * invocation is retried and the updates that did succeed are applied a second time, giving at-least-once
+     * semantics for state.
+     */
+    public static final String DATASPRAY_STATE_COMMIT_ATOMIC_ENV = "dataspray_state_commit_atomic";
+    /** Limit of the estimated size of state kept across invocations */
+    public static final long STATE_CACHE_WARM_MAX_BYTES = 16 * 1024 * 1024;
+    /** DynamoDB limit of keys in a single BatchGetItem request */
+    public static final int BATCH_GET_MAX_KEYS = 100;
+    private static final int BATCH_GET_MAX_ATTEMPTS = 3;
+    /** Base delay before fetching unprocessed keys again, doubled on every subsequent attempt */
+    private static final long BATCH_GET_BACKOFF_MS = 50;
+    /** DynamoDB limit of items in a single TransactWriteItems request */
+    public static final int TRANSACT_WRITE_MAX_ITEMS = 100;
+    /** Key of an item that is only ever read to open a connection, never written */
+    private static final String WARM_UP_KEY = "ds-warm-up";
 
     private final String tableName;
+    private final boolean cacheWarm;
+    private final long cacheWarmMaxBytes;
+    private final boolean commitAtomic;
     private final Gson gson = new Gson();
-    private final ConcurrentMap<String[], StateManager> stateManagers = Maps.newConcurrentMap();
+    /** State managers in least recently used order, every message for the same key within an invocation shares one */
+    private final LinkedHashMap<StateKey, DynamoStateManager> stateManagers = new LinkedHashMap<>(16, 0.75f, true);
+    /** Items fetched ahead of time by merged key, only valid for the current invocation */
+    private final Map<String, Map<String, AttributeValue>> prefetchedItems = Maps.newHashMap();
     private static volatile StateManagerFactory INSTANCE;
 
     @VisibleForTesting
     StateManagerFactoryImpl(String tableName) {
+        this(tableName, false, STATE_CACHE_WARM_MAX_BYTES);
+    }
+
+    @VisibleForTesting
+    StateManagerFactoryImpl(String tableName, boolean cacheWarm, long cacheWarmMaxBytes) {
+        this(tableName, cacheWarm, cacheWarmMaxBytes, false);
+    }
+
+    @VisibleForTesting
+    StateManagerFactoryImpl(String tableName, boolean cacheWarm, long cacheWarmMaxBytes, boolean commitAtomic) {
         this.tableName = tableName;
+        this.cacheWarm = cacheWarm;
+        this.cacheWarmMaxBytes = cacheWarmMaxBytes;
+        this.commitAtomic = commitAtomic;
     }
 
     public static Optional<StateManagerFactory> get() {
@@ -58,7 +129,10 @@ public class StateManagerFactoryImpl implements StateManagerFactory {
             synchronized (StateManagerFactoryImpl.class) {
                 if (INSTANCE == null) {
                     INSTANCE = new StateManagerFactoryImpl(
-                            System.getenv(DATASPRAY_STATE_TABLE_NAME_ENV)
+                            System.getenv(DATASPRAY_STATE_TABLE_NAME_ENV),
+                            Boolean.parseBoolean(System.getenv(DATASPRAY_STATE_CACHE_WARM_ENV)),
+                            STATE_CACHE_WARM_MAX_BYTES,
+                            Boolean.parseBoolean(System.getenv(DATASPRAY_STATE_COMMIT_ATOMIC_ENV))
                     );
                 }
             }
@@ -67,9 +141,73 @@ public class StateManagerFactoryImpl implements StateManagerFactory {
     }
 
     @Override
-    public StateManager getStateManager(String[] key, Optional<Duration> ttl) {
-        return stateManagers.computeIfAbsent(key,
-                k -> new DynamoStateManager(tableName, gson, DynamoProvider.get(), k, ttl));
+    public synchronized StateManager getStateManager(String[] key, Optional<Duration> ttl) {
+        return stateManagers.computeIfAbsent(new StateKey(StringSerdeUtil.mergeStrings(key), ttl),
+                k -> new DynamoStateManager(tableName, gson, DynamoProvider.get(), key, ttl,
+                        Optional.ofNullable(prefetchedItems.remove(k.getMergedKey()))));
+    }
+
+    @Override
+    public synchronized void prefetch(List<String[]> keys) {
+        Set<String> loadedMergedKeys = stateManagers.keySet().stream()
+                .map(StateKey::getMergedKey)
+                .collect(Collectors.toSet());
+        Set<String> mergedKeys = keys.stream()
+                .map(StringSerdeUtil::mergeStrings)
+                .filter(mergedKey -> !loadedMergedKeys.contains(mergedKey)
+                                     && !prefetchedItems.containsKey(mergedKey))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+
+        prefetchedItems.putAll(batchGetItems(mergedKeys, false));
+    }
+
+    /**
+     * Fetches items of the given merged keys in batches, retrying unprocessed keys with backoff.
+     *
+     * @return Items by merged key, empty map for keys that do not exist, keys still unprocessed are left out
+     */
+    @SneakyThrows
+    private Map<String, Map<String, AttributeValue>> batchGetItems(Collection<String> mergedKeys, boolean consistentRead) {
+        Map<String, Map<String, AttributeValue>> itemsByMergedKey = Maps.newHashMap();
+        for (List<String> batch : Iterables.partition(mergedKeys, BATCH_GET_MAX_KEYS)) {
+            log.info("Fetching {} dynamo items in batch for table {}", batch.size(), tableName);
+            Map<String, KeysAndAttributes> requestItems = Map.of(tableName, KeysAndAttributes.builder()
+                    .keys(batch.stream()
+                            .map(DynamoStateManager::getItemKey)
+                            .toList())
+                    .consistentRead(consistentRead)
+                    .build());
+            for (int attempt = 1; attempt <= BATCH_GET_MAX_ATTEMPTS && !requestItems.isEmpty(); attempt++) {
+                if (attempt > 1) {
+                    // Unprocessed keys are a sign of throttling, back off with jitter before retrying
+                    long backoffMs = BATCH_GET_BACKOFF_MS << (attempt - 2);
+                    Thread.sleep(backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1));
+                }
+                long startNanos = System.nanoTime();
+                BatchGetItemResponse response = getDynamoClient().batchGetItem(BatchGetItemRequest.builder()
+                        .requestItems(requestItems)
+                        .build());
+                List<Map<String, AttributeValue>> items = response.responses().getOrDefault(tableName, List.of());
+                RunnerMetrics metrics = RunnerMetrics.get();
+                metrics.recordDuration(RunnerMetrics.Phase.STATE_LOAD, System.nanoTime() - startNanos);
+                metrics.increment(RunnerMetrics.Counter.STATE_READS, items.size());
+                metrics.increment(RunnerMetrics.Counter.STATE_READ_BYTES, items.stream()
+                        .mapToLong(DynamoStateManager::getItemSizeEstimate)
+                        .sum());
+                items.forEach(item -> itemsByMergedKey.put(item.get("pk").s(), item));
+                requestItems = response.unprocessedKeys();
+            }
+
+            // Keys neither returned nor left unprocessed do not exist, remaining unprocessed keys are fetched on use
+            Set<String> unprocessedMergedKeys = Optional.ofNullable(requestItems.get(tableName)).stream()
+                    .flatMap(keysAndAttributes -> keysAndAttributes.keys().stream())
+                    .map(itemKey -> itemKey.get("pk").s())
+                    .collect(Collectors.toSet());
+            batch.stream()
+                    .filter(mergedKey -> !unprocessedMergedKeys.contains(mergedKey))
+                    .forEach(mergedKey -> itemsByMergedKey.putIfAbsent(mergedKey, Map.of()));
+        }
+        return itemsByMergedKey;
     }
 
     @Override
@@ -78,15 +216,142 @@ public class StateManagerFactoryImpl implements StateManagerFactory {
     }
 
     @Override
-    public void flushAll() {
+    public void warmUp() {
+        try {
+            getDynamoClient().getItem(GetItemRequest.builder()
+                    .tableName(tableName)
+                    .key(DynamoStateManager.getItemKey(WARM_UP_KEY))
+                    .projectionExpression("pk")
+                    .build());
+        } catch (SdkException ex) {
+            log.warn("Failed to warm up connection to dynamo table {}", tableName, ex);
+        }
+    }
+
+    @Override
+    public synchronized void flushAll() {
         stateManagers.values().forEach(StateManager::flush);
     }
 
     @Override
     @SneakyThrows
-    public void closeAll() {
-        for (StateManager stateManager : stateManagers.values()) {
+    public synchronized void closeAll() {
+        prefetchedItems.clear();
+        if (!cacheWarm) {
+            try {
+                commitAll();
+                for (StateManager stateManager : stateManagers.values()) {
+                    stateManager.close();
+                }
+            } finally {
+                stateManagers.clear();
+            }
+            return;
+        }
+
+        // Keep flushed state for the next invocation, evicting least recently used state over the limit
+        if (commitAtomic) {
+            commitAll();
+        } else {
+            flushAll();
+        }
+        long totalBytes = stateManagers.values().stream()
+                .mapToLong(DynamoStateManager::getSizeEstimate)
+                .sum();
+        Iterator<DynamoStateManager> iterator = stateManagers.values().iterator();
+        while (totalBytes > cacheWarmMaxBytes && iterator.hasNext()) {
+            DynamoStateManager stateManager = iterator.next();
+            totalBytes -= stateManager.getSizeEstimate();
             stateManager.close();
+            iterator.remove();
+        }
+    }
+
+    @Override
+    public synchronized void discardAll() {
+        prefetchedItems.clear();
+        stateManagers.clear();
+    }
+
+    /**
+     * Writes all pending updates at once without reading back the updated items, either as a single transaction or
+     * as concurrent updates.
+     * <p>
+     * Concurrent updates are not atomic: on a partial failure, updates that succeeded are marked committed and not
+     * written again by this instance, but the whole invocation is retried and its messages processed again, so they
+     * are applied twice. Use {@link #DATASPRAY_STATE_COMMIT_ATOMIC_ENV} where this is not acceptable.
+     */
+    private void commitAll() {
+        Map<StateKey, DynamoStateManager> pending = ImmutableMap.copyOf(
+                Maps.filterValues(stateManagers, DynamoStateManager::hasPendingUpdates));
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (commitAtomic) {
+            checkState(pending.size() <= TRANSACT_WRITE_MAX_ITEMS,
+                    "Cannot atomically commit state of %s keys, limit is %s", pending.size(), TRANSACT_WRITE_MAX_ITEMS);
+            checkState(pending.keySet().stream().map(StateKey::getMergedKey).distinct().count() == pending.size(),
+                    "Cannot atomically commit state of the same key with different TTLs");
+            log.info("Committing {} dynamo updates in a transaction for table {}", pending.size(), tableName);
+            long pendingBytes = pending.values().stream()
+                    .mapToLong(DynamoStateManager::getPendingSizeEstimate)
+                    .sum();
+            long startNanos = System.nanoTime();
+            getDynamoClient().transactWriteItems(TransactWriteItemsRequest.builder()
+                    .transactItems(pending.values().stream()
+                            .map(stateManager -> TransactWriteItem.builder()
+                                    .update(stateManager.getPendingUpdate())
+                                    .build())
+                            .toList())
+                    .build());
+            RunnerMetrics metrics = RunnerMetrics.get();
+            metrics.recordDuration(RunnerMetrics.Phase.STATE_FLUSH, System.nanoTime() - startNanos);
+            metrics.increment(RunnerMetrics.Counter.STATE_WRITES, pending.size());
+            metrics.increment(RunnerMetrics.Counter.STATE_WRITE_BYTES, pendingBytes);
+            if (!cacheWarm) {
+                pending.values().forEach(stateManager -> stateManager.markCommitted(Optional.empty()));
+                return;
+            }
+
+            // Transactions don't return the updated items, read them back to keep them for the next invocation
+            Map<String, Map<String, AttributeValue>> committedItems;
+            try {
+                committedItems = batchGetItems(pending.keySet().stream()
+                        .map(StateKey::getMergedKey)
+                        .toList(), true);
+            } catch (RuntimeException ex) {
+                // Already committed, the items are fetched again on use instead
+                log.warn("Failed to read back committed dynamo items for table {}", tableName, ex);
+                committedItems = Map.of();
+            }
+            for (Map.Entry<StateKey, DynamoStateManager> entry : pending.entrySet()) {
+                entry.getValue().markCommitted(Optional.ofNullable(committedItems.get(entry.getKey().getMergedKey())));
+            }
+        } else if (pending.size() == 1) {
+            Iterables.getOnlyElement(pending.values()).commit();
+        } else {
+            try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                CompletableFuture.allOf(pending.values().stream()
+                                .map(stateManager -> CompletableFuture.runAsync(stateManager::commit, executor))
+                                .toArray(CompletableFuture[]::new))
+                        .join();
+            } catch (CompletionException ex) {
+                // Waited for all commits to finish, successful ones are already marked committed
+                long failedCount = pending.values().stream()
+                        .filter(DynamoStateManager::hasPendingUpdates)
+                        .count();
+                log.warn("Failed to commit {} of {} dynamo updates for table {}, committed updates are applied again on retry",
+                        failedCount, pending.size(), tableName);
+                throw ex;
+            }
         }
     }
+
+    @Value
+    private static class StateKey {
+        @NonNull
+        String mergedKey;
+        @NonNull
+        Optional<Duration> ttl;
+    }
 }
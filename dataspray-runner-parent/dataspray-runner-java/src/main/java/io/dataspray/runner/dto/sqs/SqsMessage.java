@@ -46,4 +46,23 @@ public class SqsMessage {
     String eventSourceArn;
 
     Map<String, String> attributes;
+
+    Map<String, SqsMessageAttribute> messageAttributes;
+
+    /**
+     * Stripped down interface of {@link SQSMessage.MessageAttribute}.
+     */
+    @Value
+    @Builder
+    @Jacksonized
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class SqsMessageAttribute {
+
+        String stringValue;
+
+        /** Base64 encoded */
+        String binaryValue;
+
+        String dataType;
+    }
 }
@@ -22,11 +22,17 @@
 
 package io.dataspray.runner;
 
+import com.amazonaws.services.lambda.runtime.events.SQSBatchResponse;
+import com.google.common.collect.Lists;
 import io.dataspray.runner.dto.Request;
 import io.dataspray.runner.util.GsonUtil;
 import io.quarkus.test.junit.QuarkusTest;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -185,4 +191,49 @@ public class RequestTest {
         assertEquals("4e74e8b9-2549-4b9d-bd10-520d3b64c7e8", request.getRecords().get(1).getMessageId());
         assertEquals("Hi from SQS!", request.getRecords().get(1).getBody());
     }
+
+    @Test
+    public void testSqsRequestStreaming() throws Exception {
+        // Lambda SQS events name the records field "Records"
+        String json = """
+                {
+                  "Records": [
+                    {
+                      "messageId": "19dd0b57-b21e-4ac1-bd88-01bbb068cb78",
+                      "body": "Hello from SQS!",
+                      "eventSourceArn": "customer-myorg-myqueue",
+                      "attributes": {
+                        "MessageGroupId": "key1",
+                        "MessageDeduplicationId": "id1"
+                      }
+                    },
+                    {
+                      "messageId": "4e74e8b9-2549-4b9d-bd10-520d3b64c7e8",
+                      "body": "Hi from SQS!",
+                      "eventSourceArn": "customer-myorg-myqueue",
+                      "attributes": {
+                        "MessageGroupId": "key2",
+                        "MessageDeduplicationId": "id2"
+                      }
+                    }
+                  ]
+                }
+                """;
+
+        List<String> bodies = Lists.newArrayList();
+        Entrypoint entrypoint = new Entrypoint() {
+            @Override
+            protected void stream(MessageMetadata metadata, String data, RawCoordinator coordinator) {
+                assertEquals("myorg", metadata.getStoreName());
+                assertEquals("myqueue", metadata.getStreamName());
+                bodies.add(data);
+            }
+        };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        entrypoint.handleRequest(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)), output, null);
+
+        assertEquals(List.of("Hello from SQS!", "Hi from SQS!"), bodies);
+        SQSBatchResponse response = GsonUtil.get().fromJson(output.toString(StandardCharsets.UTF_8), SQSBatchResponse.class);
+        assertTrue(response.getBatchItemFailures().isEmpty());
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.runner;
+
+import com.google.gson.JsonObject;
+import io.dataspray.runner.RunnerMetrics.Counter;
+import io.dataspray.runner.RunnerMetrics.LocalExporter;
+import io.dataspray.runner.RunnerMetrics.Phase;
+import io.dataspray.runner.RunnerMetrics.Snapshot;
+import io.quarkus.test.junit.QuarkusTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@QuarkusTest
+public class RunnerMetricsTest {
+
+    @AfterEach
+    public void tearDown() {
+        RunnerMetrics.override(null);
+    }
+
+    @Test
+    public void testRecordAndFlush() throws Exception {
+        LocalExporter exporter = new LocalExporter();
+        RunnerMetrics.override(exporter);
+        RunnerMetrics metrics = RunnerMetrics.get();
+
+        metrics.recordDuration(Phase.PROCESS, TimeUnit.MILLISECONDS.toNanos(10));
+        metrics.recordDuration(Phase.PROCESS, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.increment(Counter.RECORDS, 2);
+        metrics.increment(Counter.RECORDS, 1);
+        metrics.flush();
+
+        Snapshot snapshot = exporter.getLastSnapshot().orElseThrow();
+        assertEquals(3L, snapshot.getCounter(Counter.RECORDS));
+        assertEquals(0L, snapshot.getCounter(Counter.STATE_READS));
+        assertEquals(2L, snapshot.getHistogram(Phase.PROCESS).orElseThrow().getCount());
+        assertEquals(40d, snapshot.getHistogram(Phase.PROCESS).orElseThrow().getSum());
+        assertEquals(10d, snapshot.getHistogram(Phase.PROCESS).orElseThrow().getMin());
+        assertEquals(30d, snapshot.getHistogram(Phase.PROCESS).orElseThrow().getMax());
+        assertTrue(snapshot.getHistogram(Phase.DESERIALIZE).isEmpty());
+
+        // Nothing is exported without anything recorded, totals accumulate across flushes
+        metrics.flush();
+        assertSame(snapshot, exporter.getLastSnapshot().orElseThrow());
+        metrics.increment(Counter.RECORDS, 1);
+        metrics.flush();
+        assertEquals(4L, exporter.getCounter(Counter.RECORDS));
+        assertEquals(2L, exporter.getDurationCount(Phase.PROCESS));
+    }
+
+    @Test
+    public void testHistogramMaxValues() throws Exception {
+        LocalExporter exporter = new LocalExporter();
+        RunnerMetrics.override(exporter);
+        RunnerMetrics metrics = RunnerMetrics.get();
+
+        for (int i = 1; i <= 1000; i++) {
+            metrics.recordDuration(Phase.STATE_LOAD, TimeUnit.MICROSECONDS.toNanos(i * 10L));
+        }
+        metrics.flush();
+
+        RunnerMetrics.Histogram histogram = exporter.getLastSnapshot().orElseThrow().getHistogram(Phase.STATE_LOAD).orElseThrow();
+        assertEquals(1000L, histogram.getCount());
+        assertTrue(histogram.getValueCounts().size() <= RunnerMetrics.HISTOGRAM_MAX_VALUES);
+        assertEquals(1000L, histogram.getValueCounts().values().stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void testEmf() throws Exception {
+        LocalExporter exporter = new LocalExporter();
+        RunnerMetrics.override(exporter);
+        RunnerMetrics metrics = RunnerMetrics.get();
+        metrics.recordDuration(Phase.OUTPUT_SEND, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.increment(Counter.OUTPUT_BYTES, 42);
+        metrics.flush();
+
+        JsonObject emf = new RunnerMetrics.EmfExporter("myFunction", System.out)
+                .toEmf(exporter.getLastSnapshot().orElseThrow(), 1700000000000L);
+
+        assertEquals("myFunction", emf.get("FunctionName").getAsString());
+        assertEquals(42L, emf.get("OutputBytes").getAsLong());
+        assertEquals(5d, emf.getAsJsonObject("OutputSend").getAsJsonArray("Values").get(0).getAsDouble());
+        assertEquals(1L, emf.getAsJsonObject("OutputSend").getAsJsonArray("Counts").get(0).getAsLong());
+        JsonObject metadata = emf.getAsJsonObject("_aws");
+        assertEquals(1700000000000L, metadata.get("Timestamp").getAsLong());
+        JsonObject directive = metadata.getAsJsonArray("CloudWatchMetrics").get(0).getAsJsonObject();
+        assertEquals(RunnerMetrics.NAMESPACE, directive.get("Namespace").getAsString());
+        assertEquals("FunctionName", directive.getAsJsonArray("Dimensions").get(0).getAsJsonArray().get(0).getAsString());
+        assertEquals(2, directive.getAsJsonArray("Metrics").size());
+    }
+}
@@ -40,6 +40,7 @@ import software.amazon.awssdk.services.dynamodb.model.KeyType;
 import software.amazon.awssdk.services.dynamodb.model.ScalarAttributeType;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
@@ -51,6 +52,7 @@ import static org.junit.jupiter.api.Assertions.*;
 public class StateManagerTest {
 
     MotoInstance motoInstance;
+    private String tableName;
     private StateManager stateManager;
 
     @BeforeEach
@@ -63,8 +65,9 @@ public class StateManagerTest {
                         AttributeDefinition.builder().attributeName("sk").attributeType(ScalarAttributeType.S).build())
                 .billingMode(BillingMode.PAY_PER_REQUEST)
                 .build());
+        tableName = createTableResponse.tableDescription().tableName();
         stateManager = new DynamoStateManager(
-                createTableResponse.tableDescription().tableName(),
+                tableName,
                 new Gson(),
                 motoInstance.getDynamoClient(),
                 new String[]{"someTask", "someMessageId"},
@@ -110,6 +113,156 @@ public class StateManagerTest {
         assertEquals(Optional.of(someData), stateManager.getJson("keyJ", someData.getClass()));
     }
 
+    @Test
+    public void testMergedUpdates() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            stateManager.addToLong("keyN1", 2);
+        }
+        stateManager.addToNumber("keyN1", 0.5d);
+        stateManager.addToLong("keyN2", -1);
+        stateManager.addToStringSet("keySS1", "val1");
+        stateManager.addToStringSet("keySS1", "val2", "val3");
+        stateManager.deleteFromStringSet("keySS1", "val2");
+        stateManager.addToStringSet("keySS1", "val4");
+
+        assertEquals(10.5d, stateManager.getNumber("keyN1").doubleValue());
+        assertEquals(10L, stateManager.getLong("keyN1"));
+        assertEquals(-1L, stateManager.getLong("keyN2"));
+        assertEquals(0L, stateManager.getLong("keyN3"));
+        assertEquals(Set.of("val1", "val3", "val4"), stateManager.getStringSet("keySS1"));
+    }
+
+    @Test
+    public void testAddToNumberNamedZero() throws Exception {
+        // Must not collide with the placeholder of the initial value
+        stateManager.addToLong("zero", 3);
+
+        assertEquals(3L, stateManager.getLong("zero"));
+    }
+
+    @Test
+    public void testFactory() throws Exception {
+        DynamoProvider.override(motoInstance.getDynamoClient());
+        StateManagerFactoryImpl factory = new StateManagerFactoryImpl(tableName);
+        Optional<Duration> ttl = Optional.of(Duration.ofDays(3));
+
+        // Same key shares the same state within an invocation
+        StateManager stateManager1 = factory.getStateManager(new String[]{"someTask", "someKey"}, ttl);
+        assertSame(stateManager1, factory.getStateManager(new String[]{"someTask", "someKey"}, ttl));
+        assertNotSame(stateManager1, factory.getStateManager(new String[]{"someTask", "someOtherKey"}, ttl));
+        assertNotSame(stateManager1, factory.getStateManager(new String[]{"someTask", "someKey"}, Optional.empty()));
+        assertNotSame(stateManager1, factory.getStateManager(new String[]{"someTask:someKey"}, ttl));
+
+        stateManager1.setString("keyS", "val1");
+        factory.getStateManager(new String[]{"someTask", "someKey"}, ttl).setBoolean("keyBool", true);
+        factory.closeAll();
+
+        // Fresh state on next invocation with all writes persisted
+        StateManager stateManager2 = factory.getStateManager(new String[]{"someTask", "someKey"}, ttl);
+        assertNotSame(stateManager1, stateManager2);
+        assertEquals("val1", stateManager2.getString("keyS"));
+        assertTrue(stateManager2.getBoolean("keyBool"));
+        factory.closeAll();
+    }
+
+    @Test
+    public void testFactoryCacheWarm() throws Exception {
+        DynamoProvider.override(motoInstance.getDynamoClient());
+        StateManagerFactoryImpl factory = new StateManagerFactoryImpl(tableName, true, 100);
+        Optional<Duration> ttl = Optional.of(Duration.ofDays(3));
+
+        // Small state is kept across invocations
+        StateManager stateManager1 = factory.getStateManager(new String[]{"someTask", "someKey"}, ttl);
+        stateManager1.setString("keyS", "val1");
+        factory.closeAll();
+        assertSame(stateManager1, factory.getStateManager(new String[]{"someTask", "someKey"}, ttl));
+        assertEquals("val1", stateManager1.getString("keyS"));
+
+        // State over the limit is evicted
+        stateManager1.setString("keyS", "v".repeat(200));
+        factory.closeAll();
+        StateManager stateManager2 = factory.getStateManager(new String[]{"someTask", "someKey"}, ttl);
+        assertNotSame(stateManager1, stateManager2);
+        assertEquals("v".repeat(200), stateManager2.getString("keyS"));
+    }
+
+    @Test
+    public void testFactoryCommitAtomic() throws Exception {
+        DynamoProvider.override(motoInstance.getDynamoClient());
+        StateManagerFactoryImpl factory = new StateManagerFactoryImpl(tableName, false, 0, true);
+        Optional<Duration> ttl = Optional.of(Duration.ofDays(3));
+
+        factory.getStateManager(new String[]{"someTask", "someKey"}, ttl).setString("keyS", "val1");
+        factory.getStateManager(new String[]{"someTask", "someOtherKey"}, ttl).addToNumber("keyN", 2);
+        factory.getStateManager(new String[]{"someTask", "someUnchangedKey"}, ttl);
+        factory.closeAll();
+
+        assertEquals("val1", factory.getStateManager(new String[]{"someTask", "someKey"}, ttl).getString("keyS"));
+        assertEquals(2L, factory.getStateManager(new String[]{"someTask", "someOtherKey"}, ttl).getNumber("keyN").longValue());
+        factory.closeAll();
+    }
+
+    @Test
+    public void testFactoryCacheWarmCommitAtomic() throws Exception {
+        DynamoProvider.override(motoInstance.getDynamoClient());
+        StateManagerFactoryImpl factory = new StateManagerFactoryImpl(tableName, true, 1000, true);
+        Optional<Duration> ttl = Optional.of(Duration.ofDays(3));
+
+        // Committed state is read back and kept across invocations
+        StateManager stateManager1 = factory.getStateManager(new String[]{"someTask", "someKey"}, ttl);
+        stateManager1.setString("keyS", "val1");
+        stateManager1.addToNumber("keyN", 2);
+        factory.closeAll();
+        assertSame(stateManager1, factory.getStateManager(new String[]{"someTask", "someKey"}, ttl));
+        assertTrue(((DynamoStateManager) stateManager1).getSizeEstimate() > 0);
+        assertEquals("val1", stateManager1.getString("keyS"));
+        assertEquals(2L, stateManager1.getNumber("keyN").longValue());
+        factory.closeAll();
+    }
+
+    @Test
+    public void testFactoryPrefetch() throws Exception {
+        DynamoProvider.override(motoInstance.getDynamoClient());
+        StateManagerFactoryImpl factory = new StateManagerFactoryImpl(tableName);
+        Optional<Duration> ttl = Optional.of(Duration.ofDays(3));
+
+        factory.getStateManager(new String[]{"someTask", "someKey"}, ttl).setString("keyS", "val1");
+        factory.closeAll();
+
+        // Prefetched state is served for both existing and missing keys
+        factory.prefetch(List.of(
+                new String[]{"someTask", "someKey"},
+                new String[]{"someTask", "someMissingKey"}));
+        assertEquals("val1", factory.getStateManager(new String[]{"someTask", "someKey"}, ttl).getString("keyS"));
+        assertEquals("", factory.getStateManager(new String[]{"someTask", "someMissingKey"}, ttl).getString("keyS"));
+        factory.closeAll();
+    }
+
+    @Test
+    public void testFactoryMetrics() throws Exception {
+        RunnerMetrics.LocalExporter exporter = new RunnerMetrics.LocalExporter();
+        RunnerMetrics.override(exporter);
+        try {
+            DynamoProvider.override(motoInstance.getDynamoClient());
+            StateManagerFactoryImpl factory = new StateManagerFactoryImpl(tableName);
+            Optional<Duration> ttl = Optional.of(Duration.ofDays(3));
+
+            StateManager stateManager1 = factory.getStateManager(new String[]{"someTask", "someKey"}, ttl);
+            assertEquals("", stateManager1.getString("keyS"));
+            stateManager1.setString("keyS", "val1");
+            factory.closeAll();
+            RunnerMetrics.get().flush();
+
+            assertEquals(1L, exporter.getCounter(RunnerMetrics.Counter.STATE_READS));
+            assertEquals(1L, exporter.getCounter(RunnerMetrics.Counter.STATE_WRITES));
+            assertTrue(exporter.getCounter(RunnerMetrics.Counter.STATE_WRITE_BYTES) > 0);
+            assertEquals(1L, exporter.getDurationCount(RunnerMetrics.Phase.STATE_LOAD));
+            assertEquals(1L, exporter.getDurationCount(RunnerMetrics.Phase.STATE_FLUSH));
+        } finally {
+            RunnerMetrics.override(null);
+        }
+    }
+
     @Value
     public static class SomeData {
         @NonNull
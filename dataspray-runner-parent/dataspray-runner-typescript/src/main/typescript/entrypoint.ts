@@ -25,17 +25,29 @@ import {
     Handler,
     LambdaFunctionURLEvent,
     SQSBatchResponse,
-    SQSEvent
+    SQSEvent,
+    SQSRecord
 } from 'aws-lambda';
+import {GetObjectCommand, S3Client} from "@aws-sdk/client-s3";
 import {StoreType} from './storeType';
 import {RawCoordinator, RawCoordinatorImpl} from './rawCoordinator';
 import {MessageMetadata} from "./message";
 import {StateManagerFactoryImpl} from "./stateManagerFactory";
 import {toHttpRequest} from "./httpRequest";
 
+// Matches io.dataspray.store.impl.SqsStreamStore.BINARY_DATA_ATTRIBUTE_NAME
+const BINARY_DATA_ATTRIBUTE_NAME = "ds-data";
+// Matches io.dataspray.store.impl.SqsStreamStore.CLAIM_CHECK_ATTRIBUTE_NAME
+const CLAIM_CHECK_ATTRIBUTE_NAME = "ds-claim-check";
+// Matches io.dataspray.store.impl.S3ClaimCheckStore.CLAIM_CHECK_URI_PREFIX
+const CLAIM_CHECK_URI_PREFIX = "s3://";
+// Matches io.dataspray.store.impl.GsonCustomerMessageSerde.isBinary
+const BINARY_CONTENT_TYPES = ["application/octet-stream", "application/avro", "application/protobuf"];
+
 export abstract class Entrypoint {
 
     readonly sqsArnPattern = /customer-(?<customer>[^-]+)-(?<queue>.+)/;
+    private s3: S3Client | null = null;
 
     handleRequest: Handler = async (event, context) => {
         try {
@@ -82,7 +94,7 @@ export abstract class Entrypoint {
                             key: messageKey,
                             id: messageId,
                         },
-                        msg.body,
+                        await this.getMessageData(msg),
                         RawCoordinatorImpl.get());
             } catch (error) {
                 sqsBatchResponse.batchItemFailures
@@ -93,6 +105,43 @@ export abstract class Entrypoint {
         return sqsBatchResponse;
     }
 
+    /**
+     * Message data as it would be in the body: binary messages Base64 encoded, others as is. Binary messages may
+     * instead be passed as a binary attribute, and messages too large for SQS as a reference to a claim-check.
+     */
+    getMessageData = async (msg: SQSRecord): Promise<string> => {
+        const binaryValue = msg.messageAttributes[BINARY_DATA_ATTRIBUTE_NAME]?.binaryValue;
+        if (binaryValue !== undefined) {
+            // Lambda passes binary attributes Base64 encoded already
+            return binaryValue;
+        }
+        const claimCheckUri = msg.messageAttributes[CLAIM_CHECK_ATTRIBUTE_NAME]?.stringValue;
+        if (claimCheckUri !== undefined) {
+            return this.getClaimCheck(claimCheckUri);
+        }
+        return msg.body;
+    }
+
+    getClaimCheck = async (claimCheckUri: string): Promise<string> => {
+        if (!claimCheckUri.startsWith(CLAIM_CHECK_URI_PREFIX)) {
+            throw new Error(`Unexpected claim-check location ${claimCheckUri}`);
+        }
+        const bucketAndKey = claimCheckUri.substring(CLAIM_CHECK_URI_PREFIX.length);
+        const slashIndex = bucketAndKey.indexOf('/');
+        if (slashIndex <= 0) {
+            throw new Error(`Unexpected claim-check location ${claimCheckUri}`);
+        }
+        if (this.s3 === null) {
+            this.s3 = new S3Client();
+        }
+        const response = await this.s3.send(new GetObjectCommand({
+            Bucket: bucketAndKey.substring(0, slashIndex),
+            Key: bucketAndKey.substring(slashIndex + 1),
+        }));
+        const isBinary = BINARY_CONTENT_TYPES.includes(response.ContentType || '');
+        return response.Body!.transformToString(isBinary ? 'base64' : 'utf-8');
+    }
+
     handleHttpRequest = async (request: LambdaFunctionURLEvent): Promise<APIGatewayProxyStructuredResultV2> => {
         const response = await this.web(
                 toHttpRequest(request),
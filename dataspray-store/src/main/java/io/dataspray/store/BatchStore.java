@@ -22,11 +22,15 @@
 
 package io.dataspray.store;
 
+import com.google.common.collect.ImmutableList;
 import io.dataspray.store.TopicStore.BatchRetention;
+import io.dataspray.store.util.BatchFailure;
 import lombok.Value;
 import software.amazon.awssdk.services.glue.model.DataFormat;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public interface BatchStore {
 
@@ -35,6 +39,27 @@ public interface BatchStore {
      */
     String putRecord(byte[] messageBytes);
 
+    /**
+     * Same as {@link #putRecord} without blocking the calling thread.
+     *
+     * @return Firehose sent Record ID
+     */
+    CompletableFuture<String> putRecordAsync(byte[] messageBytes);
+
+    /**
+     * Put multiple records using as few requests as possible.
+     *
+     * @return Records that failed to put, referenced by their position in the given list
+     */
+    ImmutableList<BatchFailure> putRecordBatch(List<byte[]> messagesBytes);
+
+    /**
+     * Same as {@link #putRecordBatch} without blocking the calling thread.
+     *
+     * @return Records that failed to put, referenced by their position in the given list
+     */
+    CompletableFuture<ImmutableList<BatchFailure>> putRecordBatchAsync(List<byte[]> messagesBytes);
+
     Optional<TableDefinition> getTableDefinition(String organizationName,
                                                  String topicName);
 
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store;
+
+import jakarta.ws.rs.core.MediaType;
+import lombok.NonNull;
+import lombok.Value;
+
+/**
+ * Claim-check store for messages too large to be sent through a stream as is. The message is stored once and only a
+ * small reference to it is passed along to each stream.
+ */
+public interface ClaimCheckStore {
+
+    /**
+     * Store a message and return a reference to it. Identical messages within the same topic share the same
+     * reference. The content type is kept along with the message for consumers that decode it differently by type.
+     */
+    ClaimCheck put(String organizationName, String topicName, byte[] messageBytes, MediaType contentType);
+
+    @Value
+    class ClaimCheck {
+        /** Location of the stored message, passed along in place of the message */
+        @NonNull
+        String uri;
+        /** Hash of the stored message content, usable for content-based deduplication */
+        @NonNull
+        String messageHash;
+    }
+}
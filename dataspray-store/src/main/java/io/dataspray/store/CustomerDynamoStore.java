@@ -22,9 +22,13 @@
 
 package io.dataspray.store;
 
+import com.google.common.collect.ImmutableList;
 import io.dataspray.singletable.SingleTable;
+import io.dataspray.store.util.BatchFailure;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Takes an arbitrary JSON and writes it to Dynamo in the same format to be compatible
@@ -42,4 +46,32 @@ public interface CustomerDynamoStore {
             String organizationName,
             TopicStore.Store definition,
             Map<String, Object> messageJson);
+
+    /**
+     * Same as {@link #write} without blocking the calling thread.
+     */
+    CompletableFuture<Void> writeAsync(
+            String organizationName,
+            TopicStore.Store definition,
+            Map<String, Object> messageJson);
+
+    /**
+     * Write multiple messages using as few requests as possible.
+     *
+     * @return Messages that failed to write, referenced by their position in the given list
+     */
+    ImmutableList<BatchFailure> writeBatch(
+            String organizationName,
+            TopicStore.Store definition,
+            List<Map<String, Object>> messagesJson);
+
+    /**
+     * Same as {@link #writeBatch} without blocking the calling thread.
+     *
+     * @return Messages that failed to write, referenced by their position in the given list
+     */
+    CompletableFuture<ImmutableList<BatchFailure>> writeBatchAsync(
+            String organizationName,
+            TopicStore.Store definition,
+            List<Map<String, Object>> messagesJson);
 }
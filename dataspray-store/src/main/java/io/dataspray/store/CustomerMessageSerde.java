@@ -34,6 +34,21 @@ public interface CustomerMessageSerde {
             byte[] messageBytes,
             MediaType contentType);
 
+    /**
+     * Same as {@link #bytesToString(byte[], MediaType)} for a message occupying only a part of the given array, such
+     * as a pooled buffer. The array is only read from and is not retained.
+     */
+    String bytesToString(
+            byte[] messageBytes,
+            int offset,
+            int length,
+            MediaType contentType);
+
+    /**
+     * Whether messages of this content type are binary and need encoding to be represented as a string.
+     */
+    boolean isBinary(MediaType contentType);
+
     Map<String, Object> stringToJson(
             String messageStr);
 
@@ -46,4 +61,31 @@ public interface CustomerMessageSerde {
             Map<String, Object> messageJson);
 
     byte[] jsonToBytes(Map<String, Object> messageJson);
+
+    /**
+     * Equivalent of {@link #enrichJson} followed by {@link #jsonToBytes} for a message that is not needed as a
+     * {@link Map} otherwise.
+     */
+    byte[] enrichJsonToBytes(
+            String organizationName,
+            String topicName,
+            Optional<BatchRetention> batchRetentionOpt,
+            Optional<String> messageIdOpt,
+            String messageKey,
+            String messageStr);
+
+    /**
+     * Same as {@link #enrichJsonToBytes(String, String, Optional, Optional, String, String)} for a UTF-8 encoded
+     * message occupying only a part of the given array, such as a pooled buffer. The array is only read from and is
+     * not retained.
+     */
+    byte[] enrichJsonToBytes(
+            String organizationName,
+            String topicName,
+            Optional<BatchRetention> batchRetentionOpt,
+            Optional<String> messageIdOpt,
+            String messageKey,
+            byte[] messageBytes,
+            int offset,
+            int length);
 }
@@ -22,10 +22,18 @@
 
 package io.dataspray.store;
 
+import com.google.common.collect.ImmutableList;
+import io.dataspray.store.util.BatchFailure;
+import jakarta.annotation.Nullable;
+import lombok.AllArgsConstructor;
+import lombok.NonNull;
+import lombok.Value;
 import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 public interface StreamStore {
 
@@ -38,6 +46,62 @@ public interface StreamStore {
                   String messageKey,
                   String messageStr);
 
+    /**
+     * Same as {@link #submit} without blocking the calling thread.
+     *
+     * @return SQS sent Message ID
+     */
+    CompletableFuture<String> submitAsync(String organizationName,
+                                          String streamName,
+                                          Optional<String> messageIdOpt,
+                                          String messageKey,
+                                          String messageStr);
+
+    /**
+     * Same as {@link #submitAsync} for a binary message, sent as is without encoding it as a string first.
+     * <p>
+     * Consumers must support reading the message from the binary message attribute instead of the message body.
+     *
+     * @return SQS sent Message ID
+     */
+    CompletableFuture<String> submitBinaryAsync(String organizationName,
+                                                String streamName,
+                                                Optional<String> messageIdOpt,
+                                                String messageKey,
+                                                byte[] messageBytes);
+
+    /**
+     * Same as {@link #submitAsync} for a message too large to be sent as is, previously stored using
+     * {@link ClaimCheckStore}. Only the reference to the stored message is sent.
+     * <p>
+     * Consumers must support fetching the message referenced by the claim-check message attribute.
+     *
+     * @return SQS sent Message ID
+     */
+    CompletableFuture<String> submitClaimCheckAsync(String organizationName,
+                                                    String streamName,
+                                                    Optional<String> messageIdOpt,
+                                                    String messageKey,
+                                                    ClaimCheckStore.ClaimCheck claimCheck);
+
+    /**
+     * Submit multiple messages to a stream using as few requests as possible.
+     *
+     * @return Messages that failed to send, referenced by their position in the given list
+     */
+    ImmutableList<BatchFailure> submitBatch(String organizationName,
+                                            String streamName,
+                                            List<StreamMessage> messages);
+
+    /**
+     * Same as {@link #submitBatch} without blocking the calling thread.
+     *
+     * @return Messages that failed to send, referenced by their position in the given list
+     */
+    CompletableFuture<ImmutableList<BatchFailure>> submitBatchAsync(String organizationName,
+                                                                    String streamName,
+                                                                    List<StreamMessage> messages);
+
     /** Check whether queue exists */
     boolean streamExists(String organizationName, String streamName);
 
@@ -49,5 +113,33 @@ public interface StreamStore {
     /** Converts user supplied queue name to AWS queue name */
     String getAwsQueueName(String organizationName, String streamName);
 
+    /** Converts user supplied queue name to AWS queue URL */
+    String getAwsQueueUrl(String organizationName, String streamName);
+
     Optional<String> extractStreamNameFromAwsQueueName(String organizationName, String awsQueueName);
+
+    @Value
+    @AllArgsConstructor
+    class StreamMessage {
+        @NonNull
+        Optional<String> messageIdOpt;
+        @NonNull
+        String messageKey;
+        @NonNull
+        String messageStr;
+        /**
+         * Binary message sent as a message attribute, message string is only a placeholder in this case.
+         */
+        @Nullable
+        byte[] messageBytes;
+        /**
+         * Reference to a message stored in {@link ClaimCheckStore}, message string is only a placeholder in this case.
+         */
+        @Nullable
+        String claimCheckUri;
+
+        public StreamMessage(Optional<String> messageIdOpt, String messageKey, String messageStr) {
+            this(messageIdOpt, messageKey, messageStr, null, null);
+        }
+    }
 }
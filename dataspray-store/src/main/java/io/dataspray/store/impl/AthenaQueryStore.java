@@ -23,6 +23,9 @@
 package io.dataspray.store.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.singletable.IndexSchema;
 import io.dataspray.singletable.SingleTable;
@@ -33,6 +36,8 @@ import io.dataspray.store.QueryStore;
 import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.services.athena.AthenaClient;
@@ -46,6 +51,8 @@ import software.amazon.awssdk.services.athena.model.QueryExecutionState;
 import software.amazon.awssdk.services.athena.model.QueryExecutionStatistics;
 import software.amazon.awssdk.services.athena.model.QueryExecutionStatus;
 import software.amazon.awssdk.services.athena.model.ResultConfiguration;
+import software.amazon.awssdk.services.athena.model.ResultReuseByAgeConfiguration;
+import software.amazon.awssdk.services.athena.model.ResultReuseConfiguration;
 import software.amazon.awssdk.services.athena.model.ResultSet;
 import software.amazon.awssdk.services.athena.model.Row;
 import software.amazon.awssdk.services.athena.model.StartQueryExecutionRequest;
@@ -65,6 +72,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -79,6 +89,7 @@ import static io.dataspray.store.impl.FirehoseS3AthenaBatchStore.*;
 public class AthenaQueryStore implements QueryStore {
 
     private static final Duration QUERY_HISTORY_TTL = Duration.ofDays(7);
+    private static final long QUERY_CACHE_MAX_SIZE = 10_000;
 
     // Forbidden SQL keywords (DDL/DML operations)
     private static final List<String> FORBIDDEN_KEYWORDS = Arrays.asList(
@@ -113,15 +124,31 @@ public class AthenaQueryStore implements QueryStore {
     @Inject
     CustomerLogger customerLog;
 
+    @ConfigProperty(name = "query.cache.enabled", defaultValue = "true")
+    boolean queryCacheEnabled;
+
+    /**
+     * How old results of an identical query may be to be reused. Firehose only delivers data to S3 every
+     * {@link FirehoseS3AthenaBatchStore#FIREHOSE_BUFFER_INTERVAL}, results are never more current than that anyway.
+     */
+    @ConfigProperty(name = "query.cache.maxAgeMinutes", defaultValue = "15")
+    int queryCacheMaxAgeMinutes;
+
     @Inject
     DynamoDbClient dynamoClient;
 
     private TableSchema<QueryHistoryRecord> queryHistorySchema;
     private IndexSchema<QueryHistoryRecord> queryHistoryByQueryExecutionIdSchema;
+    /** Query execution ID of an identical query, expires once its results are too old to be reused */
+    private Cache<QueryCacheKey, String> queryExecutionCache;
 
     @Startup
     @VisibleForTesting
     public void init() {
+        queryExecutionCache = CacheBuilder.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(queryCacheMaxAgeMinutes))
+                .maximumSize(QUERY_CACHE_MAX_SIZE)
+                .build();
         queryHistorySchema = singleTable.parseTableSchema(QueryHistoryRecord.class);
         queryHistoryByQueryExecutionIdSchema = singleTable.parseGlobalSecondaryIndexSchema(1, QueryHistoryRecord.class);
     }
@@ -146,28 +173,144 @@ public class AthenaQueryStore implements QueryStore {
                                           ". Please ingest data with batch enabled first.");
         }
 
-        // 4. Build output location
-        String outputLocation = buildOutputLocation(organizationName);
+        // 4. Reuse an identical query submitted recently, otherwise start a new execution
+        String queryExecutionId;
+        boolean cacheHit;
+        if (!queryCacheEnabled) {
+            queryExecutionId = startQueryExecution(databaseName, organizationName, sqlQuery);
+            cacheHit = false;
+        } else {
+            QueryCacheKey cacheKey = new QueryCacheKey(organizationName, normalizeSqlQuery(sqlQuery));
+            String cachedQueryExecutionId = queryExecutionCache.getIfPresent(cacheKey);
+            if (cachedQueryExecutionId != null && !isQueryExecutionReusable(cachedQueryExecutionId)) {
+                queryExecutionCache.asMap().remove(cacheKey, cachedQueryExecutionId);
+            }
+            AtomicBoolean started = new AtomicBoolean();
+            try {
+                // Concurrent identical queries share a single execution
+                queryExecutionId = queryExecutionCache.get(cacheKey, () -> {
+                    started.set(true);
+                    return startQueryExecution(databaseName, organizationName, sqlQuery);
+                });
+            } catch (ExecutionException | UncheckedExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new RuntimeException(ex.getCause());
+            }
+            cacheHit = !started.get();
+        }
+
+        // 5. Store query metadata in DynamoDB, a reused execution is recorded under its own ID
+        String historyQueryExecutionId = storeQueryHistory(organizationName, queryExecutionId, sqlQuery, username, cacheHit);
+
+        log.info("Query submitted successfully: {}{}", historyQueryExecutionId, cacheHit ? " (reusing " + queryExecutionId + ")" : "");
+        return historyQueryExecutionId;
+    }
 
-        // 5. Start query execution
-        StartQueryExecutionRequest request = StartQueryExecutionRequest.builder()
+    /**
+     * Start a new Athena query execution.
+     * <p>
+     * Athena may still reuse results of an identical query from another instance within the same maximum age.
+     */
+    private String startQueryExecution(String databaseName, String organizationName, String sqlQuery) {
+        StartQueryExecutionRequest.Builder requestBuilder = StartQueryExecutionRequest.builder()
                 .queryString(sqlQuery)
                 .queryExecutionContext(QueryExecutionContext.builder()
                         .database(databaseName)
                         .build())
                 .resultConfiguration(ResultConfiguration.builder()
-                        .outputLocation(outputLocation)
-                        .build())
-                .build();
+                        .outputLocation(buildOutputLocation(organizationName))
+                        .build());
+
+        if (queryCacheEnabled) {
+            requestBuilder.resultReuseConfiguration(ResultReuseConfiguration.builder()
+                    .resultReuseByAgeConfiguration(ResultReuseByAgeConfiguration.builder()
+                            .enabled(true)
+                            .maxAgeInMinutes(queryCacheMaxAgeMinutes)
+                            .build())
+                    .build());
+        }
 
-        StartQueryExecutionResponse response = athenaClient.startQueryExecution(request);
-        String queryExecutionId = response.queryExecutionId();
+        StartQueryExecutionResponse response = athenaClient.startQueryExecution(requestBuilder.build());
+        return response.queryExecutionId();
+    }
 
-        // 6. Store query metadata in DynamoDB
-        storeQueryHistory(organizationName, queryExecutionId, sqlQuery, username);
+    /**
+     * A cached execution is reused unless it has failed or was cancelled, otherwise the query is run again.
+     */
+    private boolean isQueryExecutionReusable(String queryExecutionId) {
+        try {
+            QueryExecutionState state = athenaClient.getQueryExecution(GetQueryExecutionRequest.builder()
+                            .queryExecutionId(queryExecutionId)
+                            .build())
+                    .queryExecution()
+                    .status()
+                    .state();
+            return state != QueryExecutionState.FAILED
+                   && state != QueryExecutionState.CANCELLED;
+        } catch (Exception ex) {
+            log.warn("Failed to check cached query execution {}, running query again", queryExecutionId, ex);
+            return false;
+        }
+    }
 
-        log.info("Query submitted successfully: {}", queryExecutionId);
-        return queryExecutionId;
+    /**
+     * Normalize SQL query for use as a cache key only, the original query is what gets executed.
+     * <p>
+     * Comments are dropped, whitespace is collapsed and everything outside quotes is uppercased
+     * as Athena keywords and identifiers are case-insensitive.
+     */
+    @VisibleForTesting
+    static String normalizeSqlQuery(String sqlQuery) {
+        StringBuilder normalized = new StringBuilder(sqlQuery.length());
+        boolean pendingSpace = false;
+        int i = 0;
+        while (i < sqlQuery.length()) {
+            char c = sqlQuery.charAt(i);
+            if (c == '-' && sqlQuery.startsWith("--", i)) {
+                int end = sqlQuery.indexOf('\n', i);
+                i = end == -1 ? sqlQuery.length() : end;
+                pendingSpace = true;
+            } else if (c == '/' && sqlQuery.startsWith("/*", i)) {
+                int end = sqlQuery.indexOf("*/", i + 2);
+                i = end == -1 ? sqlQuery.length() : end + 2;
+                pendingSpace = true;
+            } else if (Character.isWhitespace(c)) {
+                i++;
+                pendingSpace = true;
+            } else {
+                if (pendingSpace && !normalized.isEmpty()) {
+                    normalized.append(' ');
+                }
+                pendingSpace = false;
+                if (c == '\'' || c == '"' || c == '`') {
+                    // Quoted literal or identifier is kept verbatim, a doubled quote is an escaped quote
+                    int end = i + 1;
+                    while (end < sqlQuery.length()) {
+                        if (sqlQuery.charAt(end) == c) {
+                            if (end + 1 < sqlQuery.length() && sqlQuery.charAt(end + 1) == c) {
+                                end += 2;
+                                continue;
+                            }
+                            break;
+                        }
+                        end++;
+                    }
+                    end = Math.min(end + 1, sqlQuery.length());
+                    normalized.append(sqlQuery, i, end);
+                    i = end;
+                } else {
+                    normalized.append(Character.toUpperCase(c));
+                    i++;
+                }
+            }
+        }
+        // Trailing semicolon is optional
+        while (!normalized.isEmpty() && normalized.charAt(normalized.length() - 1) == ';') {
+            normalized.setLength(normalized.length() - 1);
+        }
+        return normalized.toString().trim();
     }
 
     @Override
@@ -175,18 +318,22 @@ public class AthenaQueryStore implements QueryStore {
         log.debug("Getting query execution: {}", queryExecutionId);
 
         // 1. Verify query belongs to organization
-        verifyQueryOwnership(organizationName, queryExecutionId);
+        QueryHistoryRecord record = getQueryHistoryRecord(organizationName, queryExecutionId);
 
         // 2. Get query execution from Athena
+        return getQueryExecution(record);
+    }
+
+    private QueryExecution getQueryExecution(QueryHistoryRecord record) {
         GetQueryExecutionRequest request = GetQueryExecutionRequest.builder()
-                .queryExecutionId(queryExecutionId)
+                .queryExecutionId(getAthenaQueryExecutionId(record))
                 .build();
 
         GetQueryExecutionResponse response = athenaClient.getQueryExecution(request);
         software.amazon.awssdk.services.athena.model.QueryExecution execution = response.queryExecution();
 
-        // 3. Map to our model
-        return mapToQueryExecution(execution);
+        // Map to our model
+        return mapToQueryExecution(execution, record);
     }
 
     @Override
@@ -195,17 +342,17 @@ public class AthenaQueryStore implements QueryStore {
         log.debug("Getting query results: {} (maxResults: {})", queryExecutionId, maxResults);
 
         // 1. Verify query belongs to organization
-        verifyQueryOwnership(organizationName, queryExecutionId);
+        QueryHistoryRecord record = getQueryHistoryRecord(organizationName, queryExecutionId);
 
         // 2. Check query state
-        QueryExecution execution = getQueryExecution(organizationName, queryExecutionId);
+        QueryExecution execution = getQueryExecution(record);
         if (execution.getState() != QueryState.SUCCEEDED) {
             throw new IllegalArgumentException("Query has not succeeded yet. Current state: " + execution.getState());
         }
 
         // 3. Get query results from Athena
         GetQueryResultsRequest.Builder requestBuilder = GetQueryResultsRequest.builder()
-                .queryExecutionId(queryExecutionId)
+                .queryExecutionId(getAthenaQueryExecutionId(record))
                 .maxResults(Math.min(maxResults, 1000)); // Cap at 1000
 
         nextToken.ifPresent(requestBuilder::nextToken);
@@ -257,11 +404,7 @@ public class AthenaQueryStore implements QueryStore {
         return records.stream()
                 .map(record -> {
                     try {
-                        GetQueryExecutionRequest request = GetQueryExecutionRequest.builder()
-                                .queryExecutionId(record.getQueryExecutionId())
-                                .build();
-                        GetQueryExecutionResponse response = athenaClient.getQueryExecution(request);
-                        return mapToQueryExecution(response.queryExecution());
+                        return getQueryExecution(record);
                     } catch (Exception ex) {
                         log.warn("Failed to fetch query execution details for: {}", record.getQueryExecutionId(), ex);
                         // Return basic info from DynamoDB
@@ -350,30 +493,46 @@ public class AthenaQueryStore implements QueryStore {
 
     /**
      * Store query metadata in DynamoDB for history tracking.
+     * <p>
+     * A reused execution is recorded under a new ID of its own so that each submission keeps its own username.
+     *
+     * @return Query execution ID to hand out, resolved back to the Athena execution via the stored record
      */
-    private void storeQueryHistory(String organizationName, String queryExecutionId,
-                                   String sqlQuery, String username) {
+    private String storeQueryHistory(String organizationName, String queryExecutionId,
+                                     String sqlQuery, String username, boolean cacheHit) {
         long now = System.currentTimeMillis();
         long ttl = Instant.now().plus(QUERY_HISTORY_TTL).getEpochSecond();
 
         QueryHistoryRecord record = new QueryHistoryRecord(
                 organizationName,
-                queryExecutionId,
+                cacheHit ? UUID.randomUUID().toString() : queryExecutionId,
                 now,
                 sqlQuery,
                 username,
-                ttl
+                ttl,
+                cacheHit,
+                cacheHit ? queryExecutionId : null
         );
 
         queryHistorySchema.put()
                 .item(record)
                 .execute(dynamoClient);
+
+        return record.getQueryExecutionId();
+    }
+
+    /**
+     * Athena query execution holding the results of the given submission.
+     */
+    private static String getAthenaQueryExecutionId(QueryHistoryRecord record) {
+        return Optional.ofNullable(record.getReusedQueryExecutionId())
+                .orElse(record.getQueryExecutionId());
     }
 
     /**
-     * Verify query belongs to the organization (authorization check).
+     * Get the record of a submitted query, verifying it belongs to the organization (authorization check).
      */
-    private void verifyQueryOwnership(String organizationName, String queryExecutionId) {
+    private QueryHistoryRecord getQueryHistoryRecord(String organizationName, String queryExecutionId) {
         Optional<QueryHistoryRecord> recordOpt = queryHistoryByQueryExecutionIdSchema.query()
                 .keyConditionsEqualsPrimaryKey(Map.of("queryExecutionId", queryExecutionId))
                 .executeStream(dynamoClient)
@@ -386,27 +545,22 @@ public class AthenaQueryStore implements QueryStore {
         if (!recordOpt.get().getOrganizationName().equals(organizationName)) {
             throw new QueryNotFoundException("Query not found: " + queryExecutionId);
         }
+
+        return recordOpt.get();
     }
 
     /**
-     * Map Athena QueryExecution to our model.
+     * Map Athena QueryExecution to our model, identified and attributed as the given submission.
      */
     private QueryExecution mapToQueryExecution(
-            software.amazon.awssdk.services.athena.model.QueryExecution athenaExecution) {
+            software.amazon.awssdk.services.athena.model.QueryExecution athenaExecution,
+            QueryHistoryRecord record) {
 
         QueryExecutionStatus status = athenaExecution.status();
         QueryExecutionStatistics stats = athenaExecution.statistics();
 
-        // Get username from DynamoDB record
-        String username = queryHistoryByQueryExecutionIdSchema.query()
-                .keyConditionsEqualsPrimaryKey(Map.of("queryExecutionId", athenaExecution.queryExecutionId()))
-                .executeStream(dynamoClient)
-                .findFirst()
-                .map(QueryHistoryRecord::getUsername)
-                .orElse(null);
-
         return new QueryExecution(
-                athenaExecution.queryExecutionId(),
+                record.getQueryExecutionId(),
                 athenaExecution.query(),
                 mapQueryState(status.state()),
                 status.submissionDateTime(),
@@ -414,10 +568,18 @@ public class AthenaQueryStore implements QueryStore {
                 stats != null ? stats.dataScannedInBytes() : null,
                 stats != null ? stats.engineExecutionTimeInMillis() : null,
                 status.athenaError() != null ? status.athenaError().errorMessage() : null,
-                username
+                record.getUsername()
         );
     }
 
+    @Value
+    private static class QueryCacheKey {
+        @NonNull
+        String organizationName;
+        @NonNull
+        String normalizedSqlQuery;
+    }
+
     /**
      * Map Athena QueryExecutionState to our QueryState.
      */
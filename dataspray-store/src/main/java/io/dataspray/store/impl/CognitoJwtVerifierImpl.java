@@ -23,45 +23,109 @@
 package io.dataspray.store.impl;
 
 import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.JwkProviderBuilder;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
 import com.auth0.jwt.interfaces.DecodedJWT;
 import com.auth0.jwt.interfaces.RSAKeyProvider;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
 import io.dataspray.store.CognitoJwtVerifier;
+import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
+import lombok.NonNull;
+import lombok.SneakyThrows;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
+import org.crac.Core;
+import org.crac.Resource;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 
 import static io.dataspray.store.impl.CognitoUserStore.USER_POOL_ID_PROP_NAME;
 
 /**
  * JWT Verifier and parser for Cognito tokens.
+ * <p>
+ * Verified tokens are remembered until they expire so that repeated calls with the same token skip verifying the
+ * signature.
  *
  * @see <a href="https://stackoverflow.com/a/50282130">https://stackoverflow.com/a/50282130</a>
  */
 @Slf4j
 @ApplicationScoped
-public class CognitoJwtVerifierImpl implements CognitoJwtVerifier, RSAKeyProvider {
+public class CognitoJwtVerifierImpl implements CognitoJwtVerifier, RSAKeyProvider, Resource {
+
+    public static final long VERIFIED_TOKEN_CACHE_MAX_SIZE = 10_000;
+    /** Upper bound on how long a verified token is remembered, otherwise until the token expires */
+    public static final Duration VERIFIED_TOKEN_CACHE_MAX_EXPIRY = Duration.ofHours(1);
 
     @ConfigProperty(name = "aws.cognito.productionRegion", defaultValue = "us-east-1")
     String region;
     @ConfigProperty(name = USER_POOL_ID_PROP_NAME)
     String userPoolId;
+    /** Overrides the key set of the user pool, such as for tests */
+    @ConfigProperty(name = "aws.cognito.jwksUrl")
+    Optional<String> jwksUrlOpt;
+    /** Fetch keys before a SnapStart checkpoint so that restored instances do not fetch them on first request */
+    @ConfigProperty(name = "aws.cognito.jwks.fetchBeforeCheckpoint", defaultValue = "true")
+    boolean jwksFetchBeforeCheckpoint;
 
     private final JWTVerifier jwtVerifier = JWT.require(Algorithm.RSA256(this)).build();
-    private volatile Optional<JwkProvider> jwkProvider = Optional.empty();
+    private volatile Optional<JwksKeyStore> jwksKeyStoreOpt = Optional.empty();
+    /** Verified tokens by token hash */
+    private final Cache<String, VerifiedToken> verifiedTokenCache = CacheBuilder.newBuilder()
+            .expireAfterWrite(VERIFIED_TOKEN_CACHE_MAX_EXPIRY)
+            .maximumSize(VERIFIED_TOKEN_CACHE_MAX_SIZE)
+            .recordStats()
+            .build();
+
+    @Startup
+    void init() {
+        Core.getGlobalContext().register(this);
+    }
+
+    @Override
+    public void beforeCheckpoint(org.crac.Context<? extends Resource> context) {
+        if (!jwksFetchBeforeCheckpoint) {
+            return;
+        }
+        try {
+            getJwksKeyStore().refresh();
+        } catch (Exception ex) {
+            log.warn("Failed to fetch Cognito keys before checkpoint, continuing without", ex);
+        }
+    }
+
+    @Override
+    public void afterRestore(org.crac.Context<? extends Resource> context) {
+        // Keys may have been fetched long ago, keep using them while refreshing in the background
+        jwksKeyStoreOpt.ifPresent(JwksKeyStore::markStale);
+    }
 
     public Optional<VerifiedCognitoJwt> verify(String accessToken) throws JWTVerificationException {
+        String tokenHash = Hashing.sha256().hashString(accessToken, StandardCharsets.UTF_8).toString();
+        VerifiedToken verifiedToken = verifiedTokenCache.getIfPresent(tokenHash);
+        if (verifiedToken != null) {
+            if (Instant.now().isBefore(verifiedToken.getExpiresAt())) {
+                return Optional.of(verifiedToken.getJwt());
+            }
+            verifiedTokenCache.invalidate(tokenHash);
+        }
+
         // Verify JWT and decode.
         // The JWT is in the format of a Cognito Access Token defined here:
         // Docs https://docs.aws.amazon.com/cognito/latest/developerguide/amazon-cognito-user-pools-using-the-access-token.html#user-pool-access-token-payload
@@ -81,33 +145,29 @@ public class CognitoJwtVerifierImpl implements CognitoJwtVerifier, RSAKeyProvide
         // Fetch username
         String username = Strings.nullToEmpty(rawJwt.getClaim("username").asString());
 
-        return Optional.of(new VerifiedCognitoJwt(
+        VerifiedCognitoJwt verifiedCognitoJwt = new VerifiedCognitoJwt(
                 username,
-                groupNames));
+                groupNames);
+
+        // Tokens without an expiry are verified every time
+        Optional.ofNullable(rawJwt.getExpiresAtAsInstant()).ifPresent(expiresAt ->
+                verifiedTokenCache.put(tokenHash, new VerifiedToken(verifiedCognitoJwt, expiresAt)));
+
+        return Optional.of(verifiedCognitoJwt);
+    }
+
+    @VisibleForTesting
+    CacheStats getVerifiedTokenCacheStats() {
+        return verifiedTokenCache.stats();
     }
 
     @Override
     public RSAPublicKey getPublicKeyById(String kid) {
-        if (jwkProvider.isEmpty()) {
-            synchronized (this) {
-                if (jwkProvider.isEmpty()) {
-                    // JwkProvider internally suffixes with /.well-known/jwks.json
-                    jwkProvider = Optional.of(new JwkProviderBuilder(String.format("https://cognito-idp.%s.amazonaws.com/%s",
-                            region,
-                            userPoolId))
-                            .cached(true)
-                            .build());
-                }
-            }
-        }
-
         try {
-            return (RSAPublicKey) jwkProvider
-                    .get()
-                    .get(kid)
-                    .getPublicKey();
+            return getJwksKeyStore().getKey(kid);
         } catch (JwkException ex) {
-            throw new RuntimeException(ex);
+            // Fails verification of the token rather than the request
+            throw new IllegalStateException(ex);
         }
     }
 
@@ -120,4 +180,27 @@ public class CognitoJwtVerifierImpl implements CognitoJwtVerifier, RSAKeyProvide
     public String getPrivateKeyId() {
         return null;
     }
+
+    @SneakyThrows
+    private JwksKeyStore getJwksKeyStore() {
+        if (jwksKeyStoreOpt.isEmpty()) {
+            synchronized (this) {
+                if (jwksKeyStoreOpt.isEmpty()) {
+                    String jwksUrl = jwksUrlOpt.orElseGet(() -> String.format("https://cognito-idp.%s.amazonaws.com/%s/.well-known/jwks.json",
+                            region,
+                            userPoolId));
+                    jwksKeyStoreOpt = Optional.of(new JwksKeyStore(URI.create(jwksUrl).toURL()));
+                }
+            }
+        }
+        return jwksKeyStoreOpt.get();
+    }
+
+    @Value
+    private static class VerifiedToken {
+        @NonNull
+        VerifiedCognitoJwt jwt;
+        @NonNull
+        Instant expiresAt;
+    }
 }
@@ -22,37 +22,54 @@
 
 package io.dataspray.store.impl;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gson.Gson;
-import com.jcabi.aspects.Cacheable;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.singletable.DynamoConvertersProxy;
 import io.dataspray.singletable.DynamoConvertersProxy.MarshallerAttrVal;
 import io.dataspray.singletable.SingleTable;
-import io.dataspray.singletable.StringSerdeUtil;
 import io.dataspray.singletable.TableType;
 import io.dataspray.store.CustomerDynamoStore;
 import io.dataspray.store.CustomerLogger;
 import io.dataspray.store.OrganizationStore;
 import io.dataspray.store.TopicStore;
 import io.dataspray.store.TopicStore.Store;
+import io.dataspray.store.util.BatchFailure;
+import io.dataspray.store.util.FutureUtil;
+import jakarta.annotation.Nullable;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
 import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
 import software.amazon.awssdk.services.dynamodb.model.ResourceNotFoundException;
 import software.amazon.awssdk.services.dynamodb.model.ReturnValue;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
 
-import java.time.Instant;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -64,12 +81,25 @@ import static io.dataspray.singletable.TableType.*;
 @Slf4j
 @ApplicationScoped
 public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
+    /** Dynamo limit of items in a single BatchWriteItem request */
+    public static final int WRITE_BATCH_MAX_ITEMS = 25;
+    /** Number of attempts to write unprocessed items before giving up on them */
+    public static final int WRITE_BATCH_MAX_ATTEMPTS = 3;
+    /** Dynamo limit of a single item size */
+    public static final int ITEM_MAX_BYTES = 400 * 1024;
+    private static final long WRITE_BATCH_BACKOFF_MS = 50;
+    /** Same as StringSerdeUtil */
+    private static final char KEY_DELIMITER = ':';
+    /** Same as StringSerdeUtil */
+    private static final char KEY_ESCAPER = '\\';
 
     @ConfigProperty(name = DEPLOY_ENVIRONMENT_PROP_NAME)
     DeployEnvironment deployEnv;
     @Inject
     DynamoDbClient dynamo;
     @Inject
+    DynamoDbAsyncClient dynamoAsync;
+    @Inject
     CustomerLogger customerLog;
     @Inject
     Gson gson;
@@ -82,6 +112,24 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
             .stream().collect(ImmutableMap.toImmutableMap(Map.Entry::getKey, Map.Entry::getValue));
     /** From DynamoMapperImpl */
     private final MarshallerAttrVal gsonMarshallerAttrVal = o -> AttributeValue.fromS(gson.toJson(o));
+    private final MarshallerAttrVal stringMarshallerAttrVal = findMarshallerAttrVal(String.class);
+    private final MarshallerAttrVal longMarshallerAttrVal = findMarshallerAttrVal(Long.class);
+    private final MarshallerAttrVal doubleMarshallerAttrVal = findMarshallerAttrVal(Double.class);
+    private final MarshallerAttrVal booleanMarshallerAttrVal = findMarshallerAttrVal(Boolean.class);
+    /**
+     * Compiled item mappers keyed by definition identity; topic definitions are cached and the same instance is
+     * reused for every message until the topic changes.
+     */
+    private final LoadingCache<Store, Function<Map<String, Object>, Map<String, AttributeValue>>> mapperByDefinition = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(this::compileMapper));
+    /**
+     * Table creation waits for the table to become active, run it off the SDK completion threads so other requests
+     * sharing the async client are not held up behind it.
+     */
+    private final ExecutorService tableCreationExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    /** In-flight table creations by organization, concurrent writes to a missing table share a single creation */
+    private final ConcurrentMap<String, CompletableFuture<Void>> tableCreationByOrganization = new ConcurrentHashMap<>();
 
     @Override
     public String getTableName(String organizationName) {
@@ -109,6 +157,14 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
             String organizationName,
             Store definition,
             Map<String, Object> messageJson) {
+        return FutureUtil.join(writeAsync(organizationName, definition, messageJson));
+    }
+
+    @Override
+    public CompletableFuture<Void> writeAsync(
+            String organizationName,
+            Store definition,
+            Map<String, Object> messageJson) {
 
         PutItemRequest request = PutItemRequest.builder()
                 .tableName(getTableName(organizationName))
@@ -116,41 +172,149 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
                 .returnValues(ReturnValue.NONE)
                 .build();
 
-        try {
-            dynamo.putItem(request);
-        } catch (ResourceNotFoundException ex) {
-            // Table doesn't exist
-            // Infer Gsi and Lsi count
-            long maxGsi = definition.getKeys().stream()
-                    .filter(k -> Gsi.equals(k.getType()))
-                    .mapToLong(TopicStore.Key::getIndexNumber)
-                    .max()
-                    .orElse(0L);
-            long maxLsi = definition.getKeys().stream()
-                    .filter(k -> Lsi.equals(k.getType()))
-                    .mapToLong(TopicStore.Key::getIndexNumber)
-                    .max()
-                    .orElse(0L);
-            // Create table
-            createTableIfNotExists(organizationName, maxLsi, maxGsi);
-            // Retry put request
-            dynamo.putItem(request);
+        return FutureUtil.recover(dynamoAsync.putItem(request), ResourceNotFoundException.class, ex -> {
+                    // Table doesn't exist, create it and retry put request
+                    return createTableIfNotExistsAsync(organizationName, definition)
+                            .thenCompose(v -> dynamoAsync.putItem(request));
+                })
+                .thenApply(response -> null);
+    }
+
+    @Override
+    public ImmutableList<BatchFailure> writeBatch(
+            String organizationName,
+            Store definition,
+            List<Map<String, Object>> messagesJson) {
+        return FutureUtil.join(writeBatchAsync(organizationName, definition, messagesJson));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<BatchFailure>> writeBatchAsync(
+            String organizationName,
+            Store definition,
+            List<Map<String, Object>> messagesJson) {
+
+        Function<Map<String, Object>, Map<String, AttributeValue>> mapper = getMapper(definition);
+
+        // BatchWriteItem rejects a request with duplicate keys, collapse writes to the same key keeping the last
+        // one which matches the outcome of writing them one by one
+        Map<Map<String, AttributeValue>, Map<String, AttributeValue>> itemByKey = Maps.newLinkedHashMap();
+        Map<Map<String, AttributeValue>, List<Integer>> indicesByKey = Maps.newHashMap();
+        for (int index = 0; index < messagesJson.size(); index++) {
+            Map<String, AttributeValue> item = mapper.apply(messagesJson.get(index));
+            Map<String, AttributeValue> key = getPrimaryKey(item);
+            itemByKey.put(key, item);
+            indicesByKey.computeIfAbsent(key, k -> Lists.newArrayList()).add(index);
+        }
+
+        List<CompletableFuture<List<BatchFailure>>> writes = Lists.newArrayList();
+        for (List<Map<String, AttributeValue>> items : Iterables.partition(itemByKey.values(), WRITE_BATCH_MAX_ITEMS)) {
+            writes.add(writeBatchWithRetry(organizationName, definition, items.stream()
+                    .map(item -> WriteRequest.builder()
+                            .putRequest(PutRequest.builder()
+                                    .item(item).build())
+                            .build())
+                    .toList(), 1)
+                    .thenApply(unprocessed -> unprocessed.stream()
+                            .flatMap(writeRequest -> indicesByKey.get(getPrimaryKey(writeRequest.putRequest().item())).stream())
+                            .map(index -> new BatchFailure(index, "Dynamo write unprocessed after " + WRITE_BATCH_MAX_ATTEMPTS + " attempts"))
+                            .toList()));
+        }
+
+        return CompletableFuture.allOf(writes.toArray(CompletableFuture[]::new))
+                .thenApply(v -> writes.stream()
+                        .flatMap(write -> write.join().stream())
+                        .sorted(Comparator.comparingInt(BatchFailure::getIndex))
+                        .collect(ImmutableList.toImmutableList()));
+    }
+
+    /**
+     * @return Write requests that remained unprocessed after all attempts
+     */
+    private CompletableFuture<List<WriteRequest>> writeBatchWithRetry(String organizationName, Store definition, List<WriteRequest> pending, int attempt) {
+        String tableName = getTableName(organizationName);
+        BatchWriteItemRequest request = BatchWriteItemRequest.builder()
+                .requestItems(Map.of(tableName, pending))
+                .build();
+        return FutureUtil.recover(dynamoAsync.batchWriteItem(request), ResourceNotFoundException.class, ex -> {
+                    // Table doesn't exist, create it and retry batch request
+                    return createTableIfNotExistsAsync(organizationName, definition)
+                            .thenCompose(v -> dynamoAsync.batchWriteItem(request));
+                })
+                .thenCompose(response -> {
+                    List<WriteRequest> unprocessed = response.unprocessedItems().getOrDefault(tableName, List.of());
+                    if (unprocessed.isEmpty() || attempt >= WRITE_BATCH_MAX_ATTEMPTS) {
+                        return CompletableFuture.completedFuture(unprocessed);
+                    }
+                    // Unprocessed items are a sign of throttling, back off before retrying
+                    return CompletableFuture.supplyAsync(
+                                    () -> writeBatchWithRetry(organizationName, definition, unprocessed, attempt + 1),
+                                    CompletableFuture.delayedExecutor(WRITE_BATCH_BACKOFF_MS * (attempt + 1), TimeUnit.MILLISECONDS))
+                            .thenCompose(Function.identity());
+                });
+    }
+
+    private Map<String, AttributeValue> getPrimaryKey(Map<String, AttributeValue> item) {
+        String pkName = getPartitionKeyName(Primary, 0);
+        String skName = getRangeKeyName(Primary, 0);
+        return ImmutableMap.of(
+                pkName, item.getOrDefault(pkName, AttributeValue.fromNul(true)),
+                skName, item.getOrDefault(skName, AttributeValue.fromNul(true)));
+    }
+
+    private CompletableFuture<Void> createTableIfNotExistsAsync(String organizationName, Store definition) {
+        CompletableFuture<Void> creation = new CompletableFuture<>();
+        CompletableFuture<Void> inFlight = tableCreationByOrganization.putIfAbsent(organizationName, creation);
+        if (inFlight != null) {
+            return inFlight;
         }
-        return null;
+        tableCreationExecutor.execute(() -> {
+            try {
+                createTableIfNotExists(organizationName, definition);
+                creation.complete(null);
+            } catch (Throwable th) {
+                creation.completeExceptionally(th);
+            } finally {
+                tableCreationByOrganization.remove(organizationName, creation);
+            }
+        });
+        return creation;
+    }
+
+    private void createTableIfNotExists(String organizationName, Store definition) {
+        // Infer Gsi and Lsi count
+        long maxGsi = definition.getKeys().stream()
+                .filter(k -> Gsi.equals(k.getType()))
+                .mapToLong(TopicStore.Key::getIndexNumber)
+                .max()
+                .orElse(0L);
+        long maxLsi = definition.getKeys().stream()
+                .filter(k -> Lsi.equals(k.getType()))
+                .mapToLong(TopicStore.Key::getIndexNumber)
+                .max()
+                .orElse(0L);
+        // Create table
+        createTableIfNotExists(organizationName, maxLsi, maxGsi);
     }
 
-    @Cacheable(lifetime = DynamoTopicStore.CACHE_EXPIRY_IN_MINUTES)
     private Function<Map<String, Object>, Map<String, AttributeValue>> getMapper(Store definition) {
+        return mapperByDefinition.getUnchecked(definition);
+    }
+
+    private Function<Map<String, Object>, Map<String, AttributeValue>> compileMapper(Store definition) {
         var keyMappers = definition.getKeys().stream()
                 .flatMap(this::getKeyMapper)
                 .collect(ImmutableList.toImmutableList());
         var attributeMapper = getAttributeMapper(definition);
         var ttlMapper = getTtlMapper(definition);
+        int extraAttributeCount = keyMappers.size() + 1;
         return messageJson -> {
-            Map<String, AttributeValue> item = Maps.newHashMap();
+            Map<String, AttributeValue> item = Maps.newHashMapWithExpectedSize(messageJson.size() + extraAttributeCount);
             attributeMapper.accept(messageJson, item);
             ttlMapper.accept(item);
-            keyMappers.forEach(mapper -> mapper.accept(messageJson, item));
+            for (BiConsumer<Map<String, Object>, Map<String, AttributeValue>> keyMapper : keyMappers) {
+                keyMapper.accept(messageJson, item);
+            }
             return item;
         };
     }
@@ -159,7 +323,7 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
         long ttlInSec = definition.getTtlInSec();
         return item -> item.put(
                 SingleTable.TTL_IN_EPOCH_SEC_ATTR_NAME,
-                AttributeValue.fromN(Long.toString(Instant.now().plusSeconds(ttlInSec).getEpochSecond())));
+                AttributeValue.fromN(Long.toString(System.currentTimeMillis() / 1000 + ttlInSec)));
     }
 
     private BiConsumer<Map<String, Object>, Map<String, AttributeValue>> getAttributeMapper(Store definition) {
@@ -169,15 +333,15 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
 
         // Whitelist: iterate over list and pick out from message (skip over any blacklist keys)
         if (!whitelist.isEmpty()) {
-            ImmutableSet<String> finalWhitelist = ImmutableSet.copyOf(Sets.difference(whitelist, blacklist));
+            String[] finalWhitelist = Sets.difference(whitelist, blacklist).toArray(String[]::new);
             return (messageJson, item) -> {
-                finalWhitelist.forEach(key -> {
+                for (String key : finalWhitelist) {
                     Object value = messageJson.get(key);
                     if (value == null) {
-                        return;
+                        continue;
                     }
-                    item.put(key, findMarshallerAttrVal(value.getClass()).marshall(value));
-                });
+                    item.put(key, marshall(value));
+                }
             };
         }
 
@@ -191,7 +355,7 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
                     if (blacklist.contains(key)) {
                         return;
                     }
-                    item.put(key, findMarshallerAttrVal(value.getClass()).marshall(value));
+                    item.put(key, marshall(value));
                 });
             };
         }
@@ -201,7 +365,7 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
             if (value == null) {
                 return;
             }
-            item.put(key, findMarshallerAttrVal(value.getClass()).marshall(value));
+            item.put(key, marshall(value));
         });
     }
 
@@ -209,37 +373,93 @@ public class CustomerDynamoStoreImpl implements CustomerDynamoStore {
 
         // Primary key
         String pkFieldName = getPartitionKeyName(definition.getType(), definition.getIndexNumber());
-        List<Function<Map<String, Object>, String>> pkPartMappers = definition.getPkParts().stream()
-                .<Function<Map<String, Object>, String>>map(fieldName -> messageJson -> {
-                    Object value = messageJson.get(fieldName);
-                    return gson.toJson(value);
-                })
-                .toList();
+        String[] pkParts = definition.getPkParts().toArray(String[]::new);
 
         // Sort key
         String skFieldName = getRangeKeyName(definition.getType(), definition.getIndexNumber());
         String rangePrefix = definition.getRangePrefix();
-        List<Function<Map<String, Object>, String>> skPartMappers = definition.getSkParts().stream()
-                .<Function<Map<String, Object>, String>>map(fieldName -> messageJson -> {
-                    Object value = messageJson.get(fieldName);
-                    return gson.toJson(value);
-                })
-                .toList();
+        String[] skParts = definition.getSkParts().toArray(String[]::new);
 
         return Stream.of(
                 // Primary key
                 (messageJson, item) -> item.put(pkFieldName, AttributeValue.fromS(
-                        StringSerdeUtil.mergeStrings(
-                                pkPartMappers.stream()
-                                        .map(m -> m.apply(messageJson))
-                                        .toArray(String[]::new)))),
+                        mergeKeyParts(null, pkParts, messageJson))),
                 // Sort key
                 (messageJson, item) -> item.put(skFieldName, AttributeValue.fromS(
-                        StringSerdeUtil.mergeStrings(Stream.concat(
-                                        Stream.of(rangePrefix),
-                                        skPartMappers.stream()
-                                                .map(m -> m.apply(messageJson)))
-                                .toArray(String[]::new)))));
+                        mergeKeyParts(rangePrefix, skParts, messageJson))));
+    }
+
+    /**
+     * Same result as StringSerdeUtil.mergeStrings of the prefix followed by the JSON of each part, without the
+     * intermediate strings.
+     */
+    private String mergeKeyParts(@Nullable String prefix, String[] fieldNames, Map<String, Object> messageJson) {
+        if (prefix == null && fieldNames.length == 0) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder();
+        if (prefix != null) {
+            appendKeyPartEscaped(result, prefix);
+        }
+        for (int i = 0; i < fieldNames.length; i++) {
+            if (i > 0 || prefix != null) {
+                result.append(KEY_DELIMITER);
+            }
+            appendKeyPartJson(result, messageJson.get(fieldNames[i]));
+        }
+        return result.toString();
+    }
+
+    private void appendKeyPartJson(StringBuilder result, @Nullable Object value) {
+        switch (value) {
+            case null -> result.append("null");
+            case String str when !isJsonEscapeNeeded(str) -> {
+                result.append('"');
+                appendKeyPartEscaped(result, str);
+                result.append('"');
+            }
+            case Long l -> result.append(l.longValue());
+            case Boolean b -> result.append(b.booleanValue());
+            default -> appendKeyPartEscaped(result, gson.toJson(value));
+        }
+    }
+
+    private void appendKeyPartEscaped(StringBuilder result, String part) {
+        for (int i = 0; i < part.length(); i++) {
+            char c = part.charAt(i);
+            if (c == KEY_ESCAPER || c == KEY_DELIMITER) {
+                result.append(KEY_ESCAPER);
+            }
+            result.append(c);
+        }
+    }
+
+    /**
+     * Conservative check whether Gson would escape any character of the string, includes HTML characters in case
+     * escaping is enabled.
+     */
+    private boolean isJsonEscapeNeeded(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x20 || c == '"' || c == '\\' || c == '<' || c == '>' || c == '&' || c == '=' || c == '\''
+                || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marshall using a type switch for JSON types to avoid a marshaller lookup for every attribute.
+     */
+    private AttributeValue marshall(Object value) {
+        return switch (value) {
+            case String str -> stringMarshallerAttrVal.marshall(str);
+            case Long l -> longMarshallerAttrVal.marshall(l);
+            case Double d -> doubleMarshallerAttrVal.marshall(d);
+            case Boolean b -> booleanMarshallerAttrVal.marshall(b);
+            default -> findMarshallerAttrVal(value.getClass()).marshall(value);
+        };
     }
 
     /** From DynamoMapperImpl */
@@ -22,9 +22,14 @@
 
 package io.dataspray.store.impl;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.singletable.IndexSchema;
 import io.dataspray.singletable.ShardedIndexSchema;
@@ -37,6 +42,8 @@ import io.dataspray.store.util.KeygenUtil;
 import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.services.apigateway.ApiGatewayClient;
@@ -52,6 +59,9 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -69,6 +79,13 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
     public static final int API_KEY_LENGTH = 42;
     /** Usage Key prefix to satisfy req of at least 20 characters */
     public static final String USAGE_KEY_PREFIX = "dataspray-usage-key-";
+    /** Cached api keys are fetched again once older than this, bounding how long a revoked key stays usable */
+    public static final int CACHE_EXPIRY_IN_MINUTES = 1;
+    /** Unknown api keys are remembered for a shorter time, a newly created key is usable soon after */
+    public static final int CACHE_NEGATIVE_EXPIRY_IN_SECONDS = 10;
+    public static final long CACHE_MAX_SIZE = 100_000;
+    /** Organization usage keys are only ever created, remembering them for long is safe */
+    public static final int USAGE_KEY_CACHE_EXPIRY_IN_HOURS = 1;
 
     @ConfigProperty(name = DEPLOY_ENVIRONMENT_PROP_NAME)
     DeployEnvironment deployEnv;
@@ -80,6 +97,9 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
     String usagePlanIdOrganizationTenRps;
     @ConfigProperty(name = HUNDRED_RPS_USAGE_PLAN_ID_PROP_NAME, defaultValue = "unset")
     String usagePlanIdOrganizationHundredRps;
+    /** Fetch all api keys of an organization once its first key is seen, other keys are then already cached */
+    @ConfigProperty(name = "apiAccess.cache.prefetchOrganization", defaultValue = "true")
+    boolean cachePrefetchOrganization;
 
     @Inject
     DynamoDbClient dynamo;
@@ -96,13 +116,39 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
     private IndexSchema<ApiAccess> apiAccessByOrganizationSchema;
     private TableSchema<UsageKey> usageKeyByApiKeySchema;
     private ShardedIndexSchema<UsageKey> usageKeyScanAllSchema;
-    private Cache<String, Optional<ApiAccess>> apiAccessByApiKeyCache;
+    private LoadingCache<String, CachedApiAccess> apiAccessByApiKeyCache;
+    /** Organizations whose api keys were prefetched recently */
+    private Cache<String, Boolean> prefetchedOrganizationNames;
+    private final ExecutorService prefetchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LongAdder expiredCount = new LongAdder();
+    private final LongAdder prefetchedCount = new LongAdder();
+    /** Organization usage keys known to be provisioned in API Gateway */
+    private Cache<OrganizationUsageKey, String> provisionedUsageKeys;
+    private final LongAdder usageKeyHitCount = new LongAdder();
+    private final LongAdder usageKeyCreatedCount = new LongAdder();
 
     @Startup
     void init() {
+        // Concurrent misses of the same api key wait for a single fetch
         apiAccessByApiKeyCache = CacheBuilder.newBuilder()
-                .expireAfterWrite(Duration.ofMinutes(1))
-                .maximumSize(1000)
+                .expireAfterWrite(Duration.ofMinutes(CACHE_EXPIRY_IN_MINUTES))
+                .maximumSize(CACHE_MAX_SIZE)
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public CachedApiAccess load(String apiKey) {
+                        Optional<ApiAccess> apiAccessOpt = fetchApiAccess(apiKey, false);
+                        apiAccessOpt.ifPresent(apiAccess -> prefetchOrganizationInBackground(apiAccess.getOrganizationName()));
+                        return new CachedApiAccess(apiAccessOpt);
+                    }
+                });
+        prefetchedOrganizationNames = CacheBuilder.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(CACHE_EXPIRY_IN_MINUTES))
+                .maximumSize(CACHE_MAX_SIZE)
+                .build();
+        provisionedUsageKeys = CacheBuilder.newBuilder()
+                .expireAfterWrite(Duration.ofHours(USAGE_KEY_CACHE_EXPIRY_IN_HOURS))
+                .maximumSize(CACHE_MAX_SIZE)
                 .build();
 
         apiAccessSchema = singleTable.parseTableSchema(ApiAccess.class);
@@ -158,7 +204,7 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
                 .execute(dynamo);
 
         // Add to cache and return
-        apiAccessByApiKeyCache.put(apiAccess.getApiKey(), Optional.of(apiAccess));
+        apiAccessByApiKeyCache.put(apiAccess.getApiKey(), new CachedApiAccess(Optional.of(apiAccess)));
         return apiAccess;
     }
 
@@ -196,32 +242,80 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
     public Optional<ApiAccess> getApiAccessByApiKey(String apiKey, boolean useCache) {
         // Check cache first
         if (useCache) {
-            Optional<ApiAccess> apiAccessOptFromCache = apiAccessByApiKeyCache.getIfPresent(apiKey);
-            //noinspection OptionalAssignedToNull
-            if (apiAccessOptFromCache != null) {
-                if (apiAccessOptFromCache.isPresent()
-                    && !apiAccessOptFromCache.get().isTtlNotExpired()) {
-                    // Api key expired inside the cache, invalidate it
-                    apiAccessByApiKeyCache.invalidate(apiKey);
-                } else {
-                    return apiAccessOptFromCache;
+            try {
+                CachedApiAccess cachedApiAccess = apiAccessByApiKeyCache.getUnchecked(apiKey);
+                if (cachedApiAccess.isExpired()) {
+                    // Api key or negative entry expired inside the cache, only the first to notice fetches it again
+                    expiredCount.increment();
+                    apiAccessByApiKeyCache.asMap().remove(apiKey, cachedApiAccess);
+                    cachedApiAccess = apiAccessByApiKeyCache.getUnchecked(apiKey);
+                }
+                return cachedApiAccess.getApiAccessOpt();
+            } catch (UncheckedExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
                 }
+                throw ex;
             }
         }
 
         // Fetch from DB
-        Optional<ApiAccess> apiAccessOpt = apiAccessSchema.get()
-                .key(Map.of("apiKey", apiKey))
-                .builder(b -> b.consistentRead(!useCache))
-                .executeGet(dynamo)
-                .filter(ApiAccess::isTtlNotExpired);
+        Optional<ApiAccess> apiAccessOpt = fetchApiAccess(apiKey, true);
 
         // Update cache
-        apiAccessByApiKeyCache.put(apiKey, apiAccessOpt);
+        apiAccessByApiKeyCache.put(apiKey, new CachedApiAccess(apiAccessOpt));
 
         return apiAccessOpt;
     }
 
+    /**
+     * Hit, miss and load time of the api key cache.
+     */
+    public ApiAccessCacheStats getCacheStats() {
+        CacheStats stats = apiAccessByApiKeyCache.stats();
+        return new ApiAccessCacheStats(
+                stats.hitCount(),
+                stats.missCount(),
+                expiredCount.sum(),
+                prefetchedCount.sum(),
+                stats.loadExceptionCount(),
+                stats.averageLoadPenalty());
+    }
+
+    /**
+     * Synchronously performs the same prefetch as is done in the background when an organization is first seen.
+     */
+    @VisibleForTesting
+    public void prefetchOrganization(String organizationName) {
+        for (ApiAccess apiAccess : getApiAccessesByOrganizationName(organizationName)) {
+            if (apiAccessByApiKeyCache.asMap().putIfAbsent(apiAccess.getApiKey(), new CachedApiAccess(Optional.of(apiAccess))) == null) {
+                prefetchedCount.increment();
+            }
+        }
+    }
+
+    private void prefetchOrganizationInBackground(String organizationName) {
+        if (!cachePrefetchOrganization
+            || prefetchedOrganizationNames.asMap().putIfAbsent(organizationName, Boolean.TRUE) != null) {
+            return;
+        }
+        prefetchExecutor.execute(() -> {
+            try {
+                prefetchOrganization(organizationName);
+            } catch (Exception ex) {
+                log.warn("Failed to prefetch api keys of organization {}", organizationName, ex);
+            }
+        });
+    }
+
+    private Optional<ApiAccess> fetchApiAccess(String apiKey, boolean consistentRead) {
+        return apiAccessSchema.get()
+                .key(Map.of("apiKey", apiKey))
+                .builder(b -> b.consistentRead(consistentRead))
+                .executeGet(dynamo)
+                .filter(ApiAccess::isTtlNotExpired);
+    }
+
     @Override
     public void switchUsageKeyType(String organizationName, UsageKeyType type) {
         getOrCreateUsageKeyApiKeyForOrganization(organizationName, type);
@@ -277,12 +371,20 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
 
     @Override
     public String getOrCreateUsageKeyApiKeyForOrganization(String organizationName, UsageKeyType usageKeyType) {
-        return getOrCreateUsageKeyApiKey(
+        OrganizationUsageKey organizationUsageKey = new OrganizationUsageKey(organizationName, usageKeyType);
+        String usageKeyApiKey = provisionedUsageKeys.getIfPresent(organizationUsageKey);
+        if (usageKeyApiKey != null) {
+            usageKeyHitCount.increment();
+            return usageKeyApiKey;
+        }
+        usageKeyApiKey = getOrCreateUsageKeyApiKey(
                 usageKeyType,
                 getUsageKeyApiKey(
                         deployEnv,
                         usageKeyType,
                         Optional.of(organizationName)));
+        provisionedUsageKeys.put(organizationUsageKey, usageKeyApiKey);
+        return usageKeyApiKey;
     }
 
     @Override
@@ -310,6 +412,15 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
         return getUsageKeyApiKey(deployEnv, apiAccess.getUsageKeyType(), Optional.of(apiAccess.getOrganizationName()));
     }
 
+    /**
+     * Hit and creation counts of organization usage keys.
+     */
+    public UsageKeyCacheStats getUsageKeyCacheStats() {
+        return new UsageKeyCacheStats(
+                usageKeyHitCount.sum(),
+                usageKeyCreatedCount.sum());
+    }
+
     /**
      * Get or create a Usage Key for the given Usage Key's API key.
      */
@@ -354,6 +465,8 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
         }
 
         // Create a new API Gateway Usage Key
+        usageKeyCreatedCount.increment();
+        log.info("Creating {} usage key {}", type, apiKey);
         CreateApiKeyResponse createApiKeyResponse = apiGatewayClient.createApiKey(CreateApiKeyRequest.builder()
                 .name(apiKey)
                 .value(apiKey)
@@ -401,4 +514,60 @@ public class DynamoApiGatewayApiAccessStore implements ApiAccessStore {
                 .append(deployEnv.getSuffix());
         return usageKeyApiKeyBuilder.toString();
     }
+
+    /**
+     * Api key lookup result, expires along with the api key itself if sooner than the cache expiry.
+     */
+    @Value
+    private static class CachedApiAccess {
+        @NonNull
+        Optional<ApiAccess> apiAccessOpt;
+        @NonNull
+        Instant expiresAt;
+
+        CachedApiAccess(Optional<ApiAccess> apiAccessOpt) {
+            this.apiAccessOpt = apiAccessOpt;
+            Instant cacheExpiresAt = Instant.now().plus(apiAccessOpt.isPresent()
+                    ? Duration.ofMinutes(CACHE_EXPIRY_IN_MINUTES)
+                    : Duration.ofSeconds(CACHE_NEGATIVE_EXPIRY_IN_SECONDS));
+            Optional<Instant> ttlExpiresAtOpt = apiAccessOpt
+                    .flatMap(apiAccess -> Optional.ofNullable(apiAccess.getTtlInEpochSec()))
+                    // Api key is valid through the whole second of its ttl
+                    .map(ttlInEpochSec -> Instant.ofEpochSecond(ttlInEpochSec + 1));
+            this.expiresAt = ttlExpiresAtOpt.filter(cacheExpiresAt::isAfter).orElse(cacheExpiresAt);
+        }
+
+        boolean isExpired() {
+            return !Instant.now().isBefore(expiresAt);
+        }
+    }
+
+    @Value
+    private static class OrganizationUsageKey {
+        @NonNull
+        String organizationName;
+        @NonNull
+        UsageKeyType usageKeyType;
+    }
+
+    @Value
+    public static class UsageKeyCacheStats {
+        /** Lookups of a usage key already known to be provisioned */
+        long hitCount;
+        /** Usage keys created in API Gateway, each a cold start for a new organization */
+        long createdCount;
+    }
+
+    @Value
+    public static class ApiAccessCacheStats {
+        long hitCount;
+        long missCount;
+        /** Hits past the expiry of the entry, such as of an expired api key, fetched again */
+        long expiredCount;
+        /** Api keys cached ahead of their first use by prefetching all keys of an organization */
+        long prefetchedCount;
+        long loadFailureCount;
+        /** Average time spent fetching an api key on a miss */
+        double averageLoadNanos;
+    }
 }
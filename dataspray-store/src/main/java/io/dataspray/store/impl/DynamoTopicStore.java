@@ -23,30 +23,49 @@
 package io.dataspray.store.impl;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import io.dataspray.singletable.SingleTable;
 import io.dataspray.singletable.TableSchema;
 import io.dataspray.singletable.builder.UpdateBuilder;
 import io.dataspray.store.TopicStore;
+import io.quarkus.runtime.Shutdown;
 import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
 
 import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @Slf4j
 @ApplicationScoped
 public class DynamoTopicStore implements TopicStore {
 
     public static final long INITIAL_VERSION = 0;
+    /** Cached topics are refreshed in the background once older than this, stale value is served meanwhile */
+    public static final int CACHE_REFRESH_IN_SECONDS = 10;
+    /** Cached topics not refreshed for this long are no longer served and are loaded synchronously */
     public static final int CACHE_EXPIRY_IN_MINUTES = 1;
+    public static final long CACHE_MAX_SIZE = 10_000;
+    /** Interval of logging the cache stats accumulated since the previous report */
+    public static final Duration CACHE_STATS_REPORT_INTERVAL = Duration.ofMinutes(5);
+    /** Matches io.dataspray.runner.RawCoordinatorImpl.TOPICS_VERSION_ATTR_NAME */
+    private static final String VERSION_ATTR_NAME = "version";
 
     @Inject
     @VisibleForTesting
@@ -56,17 +75,45 @@ public class DynamoTopicStore implements TopicStore {
     public SingleTable singleTable;
 
     private TableSchema<Topics> topicsSchema;
-    private Cache<String, Topics> topicsByOrganizationNameCache;
+    private LoadingCache<String, Topics> topicsByOrganizationNameCache;
+    private final LongAdder refreshVersionUnchangedCount = new LongAdder();
+    private final LongAdder refreshVersionChangedCount = new LongAdder();
+    private ScheduledExecutorService cacheStatsReporter;
+    private TopicsCacheStats cacheStatsLastReported = new TopicsCacheStats(0, 0, 0, 0, 0);
 
     @Startup
     @VisibleForTesting
     public void init() {
         topicsByOrganizationNameCache = CacheBuilder.newBuilder()
+                .refreshAfterWrite(Duration.ofSeconds(CACHE_REFRESH_IN_SECONDS))
                 .expireAfterWrite(Duration.ofMinutes(CACHE_EXPIRY_IN_MINUTES))
-                .softValues()
-                .build();
+                .maximumSize(CACHE_MAX_SIZE)
+                .recordStats()
+                .build(CacheLoader.asyncReloading(new CacheLoader<>() {
+                    @Override
+                    public Topics load(String organizationName) {
+                        return fetchTopics(organizationName, false);
+                    }
+
+                    @Override
+                    public Topics reload(String organizationName, Topics topicsCached) {
+                        return refreshTopics(organizationName, topicsCached);
+                    }
+                }, Executors.newVirtualThreadPerTaskExecutor()));
 
         topicsSchema = singleTable.parseTableSchema(Topics.class);
+
+        cacheStatsReporter = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+                .name("topics-cache-stats")
+                .factory());
+        cacheStatsReporter.scheduleWithFixedDelay(this::reportCacheStats,
+                CACHE_STATS_REPORT_INTERVAL.toMillis(), CACHE_STATS_REPORT_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Shutdown
+    void shutdown() {
+        cacheStatsReporter.shutdown();
+        reportCacheStats();
     }
 
     @Override
@@ -74,16 +121,69 @@ public class DynamoTopicStore implements TopicStore {
 
         // Check cache first
         if (useCache) {
-            Topics topics = topicsByOrganizationNameCache.getIfPresent(organizationName);
-            if (topics != null) {
-                return topics;
+            try {
+                return topicsByOrganizationNameCache.getUnchecked(organizationName);
+            } catch (UncheckedExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
             }
         }
 
         // Fetch from DB
-        Topics topics = topicsSchema.get()
+        Topics topics = fetchTopics(organizationName, true);
+
+        // Update cache
+        topicsByOrganizationNameCache.put(organizationName, topics);
+
+        return topics;
+    }
+
+    /**
+     * Hit, miss and refresh counts of the topics cache.
+     */
+    public TopicsCacheStats getCacheStats() {
+        CacheStats stats = topicsByOrganizationNameCache.stats();
+        return new TopicsCacheStats(
+                stats.hitCount(),
+                stats.missCount(),
+                refreshVersionUnchangedCount.sum(),
+                refreshVersionChangedCount.sum(),
+                stats.loadExceptionCount());
+    }
+
+    private synchronized void reportCacheStats() {
+        TopicsCacheStats stats = getCacheStats();
+        TopicsCacheStats last = cacheStatsLastReported;
+        cacheStatsLastReported = stats;
+        long hitCount = stats.getHitCount() - last.getHitCount();
+        long missCount = stats.getMissCount() - last.getMissCount();
+        long refreshUnchangedCount = stats.getRefreshUnchangedCount() - last.getRefreshUnchangedCount();
+        long refreshChangedCount = stats.getRefreshChangedCount() - last.getRefreshChangedCount();
+        long loadFailureCount = stats.getLoadFailureCount() - last.getLoadFailureCount();
+        if (hitCount + missCount + refreshUnchangedCount + refreshChangedCount + loadFailureCount == 0) {
+            return;
+        }
+        log.info("Topics cache since last report: hits {} misses {} refreshes unchanged {} changed {} load failures {}",
+                hitCount, missCount, refreshUnchangedCount, refreshChangedCount, loadFailureCount);
+    }
+
+    /**
+     * Synchronously performs the same refresh as the cache does in the background.
+     */
+    @VisibleForTesting
+    public void refreshCache(String organizationName) {
+        Topics topicsCached = topicsByOrganizationNameCache.getIfPresent(organizationName);
+        if (topicsCached != null) {
+            topicsByOrganizationNameCache.put(organizationName, refreshTopics(organizationName, topicsCached));
+        }
+    }
+
+    private Topics fetchTopics(String organizationName, boolean consistentRead) {
+        return topicsSchema.get()
                 .key(Map.of("organizationName", organizationName))
-                .builder(b -> b.consistentRead(!useCache))
+                .builder(b -> b.consistentRead(consistentRead))
                 .executeGet(dynamo)
                 // Create if not found
                 .orElseGet(() -> topicsSchema.put()
@@ -93,11 +193,30 @@ public class DynamoTopicStore implements TopicStore {
                                 .version(INITIAL_VERSION)
                                 .build())
                         .executeGetNew(dynamo));
+    }
 
-        // Update cache
-        topicsByOrganizationNameCache.put(organizationName, topics);
+    /**
+     * Checks the version only and re-fetches the whole definition only if it changed. The cached instance is kept
+     * when unchanged, which also keeps any caches keyed by the definition identity warm.
+     */
+    private Topics refreshTopics(String organizationName, Topics topicsCached) {
+        Map<String, AttributeValue> versionItem = dynamo.getItem(GetItemRequest.builder()
+                        .tableName(topicsSchema.tableName())
+                        .key(topicsSchema.primaryKey(Map.of("organizationName", organizationName)))
+                        .projectionExpression("#v")
+                        .expressionAttributeNames(Map.of("#v", VERSION_ATTR_NAME))
+                        .build())
+                .item();
+        AttributeValue versionAttr = versionItem == null ? null : versionItem.get(VERSION_ATTR_NAME);
+        if (versionAttr != null && Long.toString(topicsCached.getVersion()).equals(versionAttr.n())) {
+            refreshVersionUnchangedCount.increment();
+            return topicsCached;
+        }
 
-        return topics;
+        refreshVersionChangedCount.increment();
+        log.debug("Topics for org {} changed from version {} to {}, re-fetching",
+                organizationName, topicsCached.getVersion(), versionAttr == null ? null : versionAttr.n());
+        return fetchTopics(organizationName, false);
     }
 
     @Override
@@ -155,4 +274,15 @@ public class DynamoTopicStore implements TopicStore {
 
         return topicsUpdated;
     }
+
+    @Value
+    public static class TopicsCacheStats {
+        long hitCount;
+        long missCount;
+        /** Background refreshes where only the version was read as it did not change */
+        long refreshUnchangedCount;
+        /** Background refreshes where the version changed and the definition was re-fetched */
+        long refreshChangedCount;
+        long loadFailureCount;
+    }
 }
@@ -22,23 +22,36 @@
 
 package io.dataspray.store.impl;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.store.BatchStore;
 import io.dataspray.store.CustomerLogger;
 import io.dataspray.store.OrganizationStore;
 import io.dataspray.store.TopicStore.BatchRetention;
+import io.dataspray.store.util.BatchFailure;
+import io.dataspray.store.util.FutureUtil;
 import io.dataspray.store.util.WaiterUtil;
+import io.quarkus.runtime.Shutdown;
+import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.BadRequestException;
 import jakarta.ws.rs.ConflictException;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.function.TriFunction;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.services.athena.AthenaClient;
-import software.amazon.awssdk.services.firehose.FirehoseClient;
+import software.amazon.awssdk.services.firehose.FirehoseAsyncClient;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchRequest;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponse;
+import software.amazon.awssdk.services.firehose.model.PutRecordBatchResponseEntry;
 import software.amazon.awssdk.services.firehose.model.PutRecordRequest;
+import software.amazon.awssdk.services.firehose.model.PutRecordResponse;
 import software.amazon.awssdk.services.firehose.model.Record;
 import software.amazon.awssdk.services.glue.GlueClient;
 import software.amazon.awssdk.services.glue.model.Compatibility;
@@ -70,8 +83,17 @@ import software.amazon.awssdk.services.glue.model.Table;
 import software.amazon.awssdk.services.glue.model.TableInput;
 import software.amazon.awssdk.services.glue.model.UpdateTableRequest;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 import static io.dataspray.common.DeployEnvironment.DEPLOY_ENVIRONMENT_PROP_NAME;
@@ -82,6 +104,16 @@ public class FirehoseS3AthenaBatchStore implements BatchStore {
     public static final String ETL_BUCKET_PROP_NAME = "etl.bucket.name";
     public static final String FIREHOSE_STREAM_NAME_PROP_NAME = "etl.firehose.name";
     public static final String GLUE_CUSTOMER_PREFIX = "customer-";
+    /** Firehose limit of a single record size */
+    public static final int PUT_RECORD_MAX_BYTES = 1000 * 1024;
+    /** Firehose limit of records in a single PutRecordBatch request */
+    public static final int PUT_BATCH_MAX_RECORDS = 500;
+    /** Firehose limit of the sum of all record sizes in a single PutRecordBatch request */
+    public static final int PUT_BATCH_MAX_BYTES = 4 * 1024 * 1024;
+    /** Firehose buffering interval, a record is delivered to S3 at most this long after it was put */
+    public static final Duration FIREHOSE_BUFFER_INTERVAL = Duration.ofMinutes(15);
+    /** Base delay before retrying records that failed to put, doubled on every subsequent attempt */
+    private static final long PUT_BATCH_BACKOFF_MS = 50;
     public static final Function<DeployEnvironment, String> GLUE_CUSTOMER_PREFIX_GETTER = deployEnv ->
             DeployEnvironment.RESOURCE_PREFIX + deployEnv.getSuffix().substring(1 /* Remove duplicate dash */) + "-customer-";
     public static final String ETL_MESSAGE_TS = "_ds_message_ts";
@@ -135,8 +167,24 @@ public class FirehoseS3AthenaBatchStore implements BatchStore {
     @ConfigProperty(name = FIREHOSE_STREAM_NAME_PROP_NAME)
     String firehoseStreamName;
 
+    /**
+     * Buffered mode collects records from concurrent callers and sends them together using PutRecordBatch once either
+     * the linger time or batch size is reached. Each caller's result completes once its own record is acknowledged.
+     * <p>
+     * Off by default as a Lambda instance serves a single request at a time, there is nothing to batch with and every
+     * put would just wait out the linger time. Only enable where requests are served concurrently.
+     */
+    @ConfigProperty(name = "etl.firehose.buffer.enabled", defaultValue = "false")
+    boolean bufferEnabled;
+    @ConfigProperty(name = "etl.firehose.buffer.lingerMs", defaultValue = "20")
+    long bufferLingerMs;
+    @ConfigProperty(name = "etl.firehose.buffer.maxRecords", defaultValue = "" + PUT_BATCH_MAX_RECORDS)
+    int bufferMaxRecords;
+    @ConfigProperty(name = "etl.firehose.buffer.maxAttempts", defaultValue = "3")
+    int bufferMaxAttempts;
+
     @Inject
-    FirehoseClient firehoseClient;
+    FirehoseAsyncClient firehoseAsyncClient;
     @Inject
     GlueClient glueClient;
     @Inject
@@ -150,13 +198,204 @@ public class FirehoseS3AthenaBatchStore implements BatchStore {
     @Inject
     WaiterUtil waiterUtil;
 
+    private final Object bufferLock = new Object();
+    private List<PendingRecord> buffer = Lists.newArrayList();
+    private long bufferBytes = 0;
+    private final Set<CompletableFuture<Void>> inFlightFlushes = Sets.newConcurrentHashSet();
+    private ScheduledExecutorService bufferFlushScheduler;
+
+    @Startup
+    void init() {
+        bufferFlushScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+                .name("firehose-buffer-flush")
+                .factory());
+    }
+
+    @Shutdown
+    void shutdown() {
+        flushBuffer();
+        CompletableFuture.allOf(inFlightFlushes.toArray(CompletableFuture[]::new)).join();
+        bufferFlushScheduler.shutdown();
+    }
+
     @Override
     public String putRecord(byte[] messageBytes) {
-        return firehoseClient.putRecord(PutRecordRequest.builder()
-                        .deliveryStreamName(firehoseStreamName)
-                        .record(Record.builder()
-                                .data(SdkBytes.fromByteArrayUnsafe(messageBytes)).build()).build())
-                .recordId();
+        return FutureUtil.join(putRecordAsync(messageBytes));
+    }
+
+    @Override
+    public CompletableFuture<String> putRecordAsync(byte[] messageBytes) {
+        if (!bufferEnabled) {
+            return firehoseAsyncClient.putRecord(PutRecordRequest.builder()
+                            .deliveryStreamName(firehoseStreamName)
+                            .record(Record.builder()
+                                    .data(SdkBytes.fromByteArrayUnsafe(messageBytes)).build()).build())
+                    .thenApply(PutRecordResponse::recordId);
+        }
+
+        PendingRecord pendingRecord = new PendingRecord(
+                Record.builder().data(SdkBytes.fromByteArrayUnsafe(messageBytes)).build(),
+                messageBytes.length,
+                new CompletableFuture<>());
+        List<List<PendingRecord>> batchesToFlush = Lists.newArrayList();
+        synchronized (bufferLock) {
+            // Flush first if this record would push the batch over the Firehose size limit
+            if (!buffer.isEmpty() && bufferBytes + pendingRecord.getBytes() > PUT_BATCH_MAX_BYTES) {
+                batchesToFlush.add(drainBuffer());
+            }
+            buffer.add(pendingRecord);
+            bufferBytes += pendingRecord.getBytes();
+            if (buffer.size() >= Math.min(bufferMaxRecords, PUT_BATCH_MAX_RECORDS)) {
+                batchesToFlush.add(drainBuffer());
+            } else if (buffer.size() == 1) {
+                // First record of a new batch, make sure it doesn't wait longer than the linger time
+                bufferFlushScheduler.schedule(this::flushBuffer, bufferLingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        batchesToFlush.forEach(this::flushBatch);
+
+        return pendingRecord.getRecordIdFuture();
+    }
+
+    /**
+     * Flushes all currently buffered records regardless of linger time.
+     */
+    void flushBuffer() {
+        List<PendingRecord> batch;
+        synchronized (bufferLock) {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            batch = drainBuffer();
+        }
+        flushBatch(batch);
+    }
+
+    /** Must be called while holding bufferLock */
+    private List<PendingRecord> drainBuffer() {
+        List<PendingRecord> batch = buffer;
+        buffer = Lists.newArrayList();
+        bufferBytes = 0;
+        return batch;
+    }
+
+    private void flushBatch(List<PendingRecord> batch) {
+        CompletableFuture<Void> flush = flushBatch(batch, 1);
+        inFlightFlushes.add(flush);
+        flush.whenComplete((v, th) -> inFlightFlushes.remove(flush));
+    }
+
+    /**
+     * @return Future that always completes normally once every record in the batch has its result
+     */
+    private CompletableFuture<Void> flushBatch(List<PendingRecord> pending, int attempt) {
+        CompletableFuture<PutRecordBatchResponse> responseFuture;
+        try {
+            responseFuture = firehoseAsyncClient.putRecordBatch(PutRecordBatchRequest.builder()
+                    .deliveryStreamName(firehoseStreamName)
+                    .records(pending.stream()
+                            .map(PendingRecord::getRecord)
+                            .toList())
+                    .build());
+        } catch (RuntimeException ex) {
+            responseFuture = CompletableFuture.failedFuture(ex);
+        }
+        return responseFuture.handle((response, th) -> {
+            if (th != null) {
+                pending.forEach(pendingRecord -> pendingRecord.getRecordIdFuture().completeExceptionally(th));
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+
+            // Response entries are in the same order as the request records
+            List<PendingRecord> failed = Lists.newArrayList();
+            for (int i = 0; i < response.requestResponses().size(); i++) {
+                PutRecordBatchResponseEntry responseEntry = response.requestResponses().get(i);
+                PendingRecord pendingRecord = pending.get(i);
+                if (responseEntry.errorCode() == null) {
+                    pendingRecord.getRecordIdFuture().complete(responseEntry.recordId());
+                } else if (attempt >= bufferMaxAttempts) {
+                    pendingRecord.getRecordIdFuture().completeExceptionally(new RuntimeException(
+                            "Failed to put record to Firehose " + responseEntry.errorCode() + ": " + responseEntry.errorMessage()));
+                } else {
+                    failed.add(pendingRecord);
+                }
+            }
+            if (failed.isEmpty()) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            // Failed records are a sign of throttling, back off before retrying
+            long backoffMs = getBackoffMs(attempt);
+            log.warn("Firehose PutRecordBatch failed {} of {} records on attempt {}, retrying failed records in {}ms",
+                    response.failedPutCount(), pending.size(), attempt, backoffMs);
+            return CompletableFuture.supplyAsync(
+                            () -> flushBatch(failed, attempt + 1),
+                            CompletableFuture.delayedExecutor(backoffMs, TimeUnit.MILLISECONDS))
+                    .thenCompose(Function.identity());
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * Exponential backoff with jitter so that concurrent callers throttled together don't retry in lockstep.
+     */
+    private long getBackoffMs(int attempt) {
+        long backoffMs = PUT_BATCH_BACKOFF_MS << Math.min(attempt - 1, 10);
+        return backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+    }
+
+    @Value
+    private static class PendingRecord {
+        @NonNull
+        Record record;
+        long bytes;
+        @NonNull
+        CompletableFuture<String> recordIdFuture;
+    }
+
+    @Override
+    public ImmutableList<BatchFailure> putRecordBatch(List<byte[]> messagesBytes) {
+        return FutureUtil.join(putRecordBatchAsync(messagesBytes));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<BatchFailure>> putRecordBatchAsync(List<byte[]> messagesBytes) {
+        List<PendingRecord> pending = messagesBytes.stream()
+                .map(messageBytes -> new PendingRecord(
+                        Record.builder().data(SdkBytes.fromByteArrayUnsafe(messageBytes)).build(),
+                        messageBytes.length,
+                        new CompletableFuture<>()))
+                .toList();
+
+        // Group records into as few requests as Firehose limits allow, failed records are retried same as buffered
+        List<CompletableFuture<Void>> flushes = Lists.newArrayList();
+        List<PendingRecord> batch = Lists.newArrayList();
+        long batchBytes = 0;
+        for (PendingRecord pendingRecord : pending) {
+            if (!batch.isEmpty()
+                && (batch.size() >= PUT_BATCH_MAX_RECORDS
+                    || batchBytes + pendingRecord.getBytes() > PUT_BATCH_MAX_BYTES)) {
+                flushes.add(flushBatch(batch, 1));
+                batch = Lists.newArrayList();
+                batchBytes = 0;
+            }
+            batch.add(pendingRecord);
+            batchBytes += pendingRecord.getBytes();
+        }
+        if (!batch.isEmpty()) {
+            flushes.add(flushBatch(batch, 1));
+        }
+
+        return CompletableFuture.allOf(flushes.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            ImmutableList.Builder<BatchFailure> failuresBuilder = ImmutableList.builder();
+            for (int index = 0; index < pending.size(); index++) {
+                CompletableFuture<String> recordIdFuture = pending.get(index).getRecordIdFuture();
+                if (recordIdFuture.isCompletedExceptionally()) {
+                    Throwable th = recordIdFuture.exceptionNow();
+                    Throwable cause = th instanceof CompletionException && th.getCause() != null ? th.getCause() : th;
+                    failuresBuilder.add(new BatchFailure(index, String.valueOf(cause.getMessage())));
+                }
+            }
+            return failuresBuilder.build();
+        });
     }
 
     @Override
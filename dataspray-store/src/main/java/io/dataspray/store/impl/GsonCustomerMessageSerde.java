@@ -39,6 +39,7 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.ByteArrayOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Base64;
 import java.util.Map;
@@ -55,16 +56,35 @@ public class GsonCustomerMessageSerde implements CustomerMessageSerde {
 
     @Override
     public String bytesToString(byte[] messageBytes, MediaType contentType) {
+        return bytesToString(messageBytes, 0, messageBytes.length, contentType);
+    }
+
+    @Override
+    public String bytesToString(byte[] messageBytes, int offset, int length, MediaType contentType) {
         return switch (contentType.toString()) {
             // Text based messages send as string
-            case MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN -> new String(messageBytes, Charsets.UTF_8);
+            case MediaType.APPLICATION_JSON, MediaType.TEXT_PLAIN -> new String(messageBytes, offset, length, Charsets.UTF_8);
             // Binary messages send as base64
             case "application/octet-stream", "application/avro", "application/protobuf" ->
-                    Base64.getEncoder().encodeToString(messageBytes);
+                    encodeBase64(messageBytes, offset, length);
             default -> throw new ClientErrorException(Response.Status.UNSUPPORTED_MEDIA_TYPE);
         };
     }
 
+    private String encodeBase64(byte[] messageBytes, int offset, int length) {
+        // Base64 output is always ASCII, same as Base64.Encoder.encodeToString without copying the input first
+        ByteBuffer encoded = Base64.getEncoder().encode(ByteBuffer.wrap(messageBytes, offset, length));
+        return new String(encoded.array(), encoded.arrayOffset() + encoded.position(), encoded.remaining(), Charsets.ISO_8859_1);
+    }
+
+    @Override
+    public boolean isBinary(MediaType contentType) {
+        return switch (contentType.toString()) {
+            case "application/octet-stream", "application/avro", "application/protobuf" -> true;
+            default -> false;
+        };
+    }
+
     @Override
     public Map<String, Object> stringToJson(String messageStr) {
         return gson.fromJson(messageStr, new TypeToken<Map<String, Object>>() {
@@ -102,4 +122,14 @@ public class GsonCustomerMessageSerde implements CustomerMessageSerde {
             return byteArrayOutputStream.toByteArray();
         }
     }
+
+    @Override
+    public byte[] enrichJsonToBytes(String organizationName, String topicName, Optional<TopicStore.BatchRetention> batchRetentionOpt, Optional<String> messageIdOpt, String messageKey, String messageStr) {
+        return jsonToBytes(enrichJson(organizationName, topicName, batchRetentionOpt, messageIdOpt, messageKey, stringToJson(messageStr)));
+    }
+
+    @Override
+    public byte[] enrichJsonToBytes(String organizationName, String topicName, Optional<TopicStore.BatchRetention> batchRetentionOpt, Optional<String> messageIdOpt, String messageKey, byte[] messageBytes, int offset, int length) {
+        return enrichJsonToBytes(organizationName, topicName, batchRetentionOpt, messageIdOpt, messageKey, new String(messageBytes, offset, length, Charsets.UTF_8));
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store.impl;
+
+import com.auth0.jwk.InvalidPublicKeyException;
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwk.UrlJwkProvider;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import lombok.NonNull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URL;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Public keys of a JSON Web Key Set kept in memory. Keys are refreshed in the background once old while the current
+ * keys are served meanwhile. An unknown key id, such as after a key rotation, fetches the keys again right away but
+ * at most once per {@link #unknownKeyRefetchInterval} so that tokens with made up key ids cannot cause a fetch each.
+ */
+@Slf4j
+public class JwksKeyStore {
+
+    public static final Duration REFRESH_AFTER = Duration.ofHours(1);
+    public static final Duration UNKNOWN_KEY_REFETCH_INTERVAL = Duration.ofMinutes(1);
+    private static final int FETCH_TIMEOUT_MS = 5_000;
+
+    private final URL jwksUrl;
+    private final UrlJwkProvider jwkProvider;
+    private final Duration refreshAfter;
+    private final Duration unknownKeyRefetchInterval;
+    private final ExecutorService refreshExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicBoolean isRefreshing = new AtomicBoolean(false);
+    private volatile Keys keys = new Keys(ImmutableMap.of(), Instant.EPOCH);
+    private volatile Instant lastUnknownKeyFetch = Instant.EPOCH;
+
+    public JwksKeyStore(URL jwksUrl) {
+        this(jwksUrl, REFRESH_AFTER, UNKNOWN_KEY_REFETCH_INTERVAL);
+    }
+
+    @VisibleForTesting
+    JwksKeyStore(URL jwksUrl, Duration refreshAfter, Duration unknownKeyRefetchInterval) {
+        this.jwksUrl = jwksUrl;
+        this.jwkProvider = new UrlJwkProvider(jwksUrl, FETCH_TIMEOUT_MS, FETCH_TIMEOUT_MS);
+        this.refreshAfter = refreshAfter;
+        this.unknownKeyRefetchInterval = unknownKeyRefetchInterval;
+    }
+
+    public RSAPublicKey getKey(String kid) throws SigningKeyNotFoundException {
+        Keys currentKeys = keys;
+        RSAPublicKey key = currentKeys.getKeysById().get(kid);
+        if (key != null) {
+            if (currentKeys.getFetchedAt().plus(refreshAfter).isBefore(Instant.now())) {
+                refreshInBackground();
+            }
+            return key;
+        }
+
+        synchronized (this) {
+            // Another thread may have fetched the key meanwhile
+            currentKeys = keys;
+            key = currentKeys.getKeysById().get(kid);
+            if (key != null) {
+                return key;
+            }
+            if (!currentKeys.getKeysById().isEmpty()
+                && lastUnknownKeyFetch.plus(unknownKeyRefetchInterval).isAfter(Instant.now())) {
+                throw new SigningKeyNotFoundException("No key found with id " + kid + " in " + jwksUrl + ", recently fetched", null);
+            }
+            lastUnknownKeyFetch = Instant.now();
+            refresh();
+            key = keys.getKeysById().get(kid);
+            if (key == null) {
+                throw new SigningKeyNotFoundException("No key found with id " + kid + " in " + jwksUrl, null);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Fetches the keys synchronously.
+     */
+    public void refresh() throws SigningKeyNotFoundException {
+        List<Jwk> jwks = jwkProvider.getAll();
+        ImmutableMap.Builder<String, RSAPublicKey> keysByIdBuilder = ImmutableMap.builder();
+        for (Jwk jwk : jwks) {
+            if (jwk.getId() == null || !"RSA".equals(jwk.getType())) {
+                continue;
+            }
+            try {
+                PublicKey publicKey = jwk.getPublicKey();
+                keysByIdBuilder.put(jwk.getId(), (RSAPublicKey) publicKey);
+            } catch (InvalidPublicKeyException ex) {
+                log.warn("Skipping invalid key {} from {}", jwk.getId(), jwksUrl, ex);
+            }
+        }
+        ImmutableMap<String, RSAPublicKey> keysById = keysByIdBuilder.buildKeepingLast();
+        log.info("Fetched {} keys from {}", keysById.size(), jwksUrl);
+        keys = new Keys(keysById, Instant.now());
+    }
+
+    /**
+     * Keeps serving the current keys but refreshes them in the background on next use, such as when the keys may have
+     * been fetched long ago before a snapshot was restored.
+     */
+    public void markStale() {
+        keys = new Keys(keys.getKeysById(), Instant.EPOCH);
+    }
+
+    private void refreshInBackground() {
+        if (!isRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refreshExecutor.execute(() -> {
+            try {
+                refresh();
+            } catch (Exception ex) {
+                log.warn("Failed to refresh keys from {}, serving current keys", jwksUrl, ex);
+            } finally {
+                isRefreshing.set(false);
+            }
+        });
+    }
+
+    @Value
+    private static class Keys {
+        @NonNull
+        ImmutableMap<String, RSAPublicKey> keysById;
+        @NonNull
+        Instant fetchedAt;
+    }
+}
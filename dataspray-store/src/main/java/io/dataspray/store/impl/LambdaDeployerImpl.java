@@ -30,12 +30,15 @@ import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.primitives.Longs;
 import com.google.gson.Gson;
 import io.dataspray.common.DeployEnvironment;
 import io.dataspray.common.StringUtil;
 import io.dataspray.singletable.ShardPageResult;
+import io.dataspray.singletable.SingleTable;
+import io.dataspray.singletable.TableSchema;
 import io.dataspray.store.ApiAccessStore;
 import io.dataspray.store.ApiAccessStore.ApiAccess;
 import io.dataspray.store.ApiAccessStore.UsageKeyType;
@@ -44,6 +47,7 @@ import io.dataspray.store.LambdaDeployer;
 import io.dataspray.store.LambdaStore;
 import io.dataspray.store.LambdaStore.LambdaRecord;
 import io.dataspray.store.StreamStore;
+import io.dataspray.store.TopicStore;
 import io.dataspray.store.util.CycleUtil;
 import io.dataspray.store.util.IamUtil;
 import io.dataspray.store.util.WaiterUtil;
@@ -58,6 +62,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 import software.amazon.awssdk.services.iam.IamClient;
 import software.amazon.awssdk.services.lambda.LambdaClient;
 import software.amazon.awssdk.services.lambda.model.AddPermissionRequest;
@@ -146,6 +151,8 @@ public class LambdaDeployerImpl implements LambdaDeployer {
     public static final String CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LOGGING_PREFIX = CUSTOMER_FUNCTION_POLICY_PATH_PREFIX + "LambdaLogging";
     public static final String CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_SQS = CUSTOMER_FUNCTION_POLICY_PATH_PREFIX + "LambdaSqs";
     public static final String CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_DYNAMO = CUSTOMER_FUNCTION_POLICY_PATH_PREFIX + "LambdaDynamo";
+    public static final String CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_CLAIM_CHECK = CUSTOMER_FUNCTION_POLICY_PATH_PREFIX + "LambdaClaimCheck";
+    public static final String CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_SQS_SEND = CUSTOMER_FUNCTION_POLICY_PATH_PREFIX + "LambdaSqsSend";
     public static final String CODE_BUCKET_NAME_PROP_NAME = "deployer.codeBucketName";
     private static final String CODE_KEY_PREFIX = "customer/";
     public static final Function<DeployEnvironment, String> CUSTOMER_FUN_DYNAMO_OR_ROLE_NAME_PREFIX_GETTER = deployEnv ->
@@ -162,6 +169,16 @@ public class LambdaDeployerImpl implements LambdaDeployer {
     public static final String DATASPRAY_ENDPOINT_ENV = "dataspray_endpoint";
     /** Matches io.dataspray.runner.StateManagerFactoryImpl.DATASPRAY_STATE_TABLE_NAME_ENV */
     public static final String DATASPRAY_STATE_TABLE_NAME_ENV = "dataspray_state_table_name";
+    /** Matches io.dataspray.runner.Entrypoint.DATASPRAY_CLAIM_CHECK_ENV */
+    public static final String DATASPRAY_CLAIM_CHECK_ENV = "dataspray_claim_check";
+    /** Matches io.dataspray.runner.RawCoordinatorImpl.DATASPRAY_DIRECT_OUTPUTS_ENV */
+    public static final String DATASPRAY_DIRECT_OUTPUTS_ENV = "dataspray_direct_outputs";
+    /** Matches io.dataspray.runner.RawCoordinatorImpl.DATASPRAY_DIRECT_OUTPUT_QUEUE_URL_ENV */
+    public static final String DATASPRAY_DIRECT_OUTPUT_QUEUE_URL_ENV = "dataspray_direct_output_queue_url";
+    /** Matches io.dataspray.runner.RawCoordinatorImpl.DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER */
+    public static final String DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER = "{stream}";
+    /** Matches io.dataspray.runner.RawCoordinatorImpl.DATASPRAY_DIRECT_OUTPUTS_TOPICS_ENV */
+    public static final String DATASPRAY_DIRECT_OUTPUTS_TOPICS_ENV = "dataspray_direct_outputs_topics";
 
     @ConfigProperty(name = "aws.accountId")
     String awsAccountId;
@@ -173,6 +190,14 @@ public class LambdaDeployerImpl implements LambdaDeployer {
     String customerFunctionPermissionBoundaryName;
     @ConfigProperty(name = CODE_BUCKET_NAME_PROP_NAME, defaultValue = "io-dataspray-code-upload")
     String codeBucketName;
+    @ConfigProperty(name = FirehoseS3AthenaBatchStore.ETL_BUCKET_PROP_NAME)
+    String etlBucketName;
+    /**
+     * Let tasks send outputs directly to the queues of topics that only write to streams, bypassing the ingest API
+     * and its usage metering.
+     */
+    @ConfigProperty(name = "deployer.directOutputs.enable", defaultValue = "false")
+    boolean directOutputsEnabled;
 
     @Inject
     IamClient iamClient;
@@ -196,6 +221,10 @@ public class LambdaDeployerImpl implements LambdaDeployer {
     ApiAccessStore apiAccessStore;
     @Inject
     CustomerDynamoStore customerDynamoStore;
+    @Inject
+    TopicStore topicStore;
+    @Inject
+    SingleTable singleTable;
 
     @SneakyThrows
     @Override
@@ -300,6 +329,61 @@ public class LambdaDeployerImpl implements LambdaDeployer {
                                         "arn:aws:logs:" + awsRegion + ":" + awsAccountId + ":log-group:/aws/lambda/" + FUN_NAME_WILDCARD_GETTER.apply(deployEnv) + ":*"
                                 ))))));
 
+        // Claim-check policy: allow fetching large messages referenced from input queues
+        if (!inputQueueNames.isEmpty()) {
+            iamUtil.ensurePolicyAttachedToRole(functionRoleName,
+                    CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_CLAIM_CHECK + StringUtil.camelCase(functionName, true),
+                    gson.toJson(Map.of(
+                            "Version", "2012-10-17",
+                            "Statement", List.of(Map.of(
+                                    "Effect", "Allow",
+                                    "Action", List.of(
+                                            "s3:GetObject"),
+                                    "Resource", List.of(
+                                            "arn:aws:s3:::" + etlBucketName + "/" + S3ClaimCheckStore.getClaimCheckOrganizationPrefix(organizationName) + "*"
+                                    ))))));
+        }
+
+        // Direct outputs policy: allow sending to queues of output topics that only write to streams and reading the
+        // topics version to tell whether that still holds
+        String directOutputsPolicyName = CUSTOMER_FUNCTION_PERMISSION_CUSTOMER_LAMBDA_SQS_SEND + StringUtil.camelCase(functionName, true);
+        TableSchema<TopicStore.Topics> topicsSchema = singleTable.parseTableSchema(TopicStore.Topics.class);
+        Map<String, Object> topicsKey = Map.of("organizationName", organizationName);
+        Optional<TopicStore.Topics> directOutputsTopicsOpt = directOutputsEnabled
+                ? Optional.of(topicStore.getTopics(organizationName, false))
+                : Optional.empty();
+        ImmutableMap<String, ImmutableList<String>> directOutputStreamNames = directOutputsTopicsOpt
+                .map(topics -> getDirectOutputStreamNames(organizationName, topics, outputQueueNames))
+                .orElse(ImmutableMap.of());
+        if (!directOutputStreamNames.isEmpty()) {
+            iamUtil.ensurePolicyUpToDateOnRole(functionRoleName, directOutputsPolicyName, gson.toJson(Map.of(
+                    "Version", "2012-10-17",
+                    "Statement", List.of(
+                            Map.of(
+                                    "Effect", "Allow",
+                                    "Action", List.of(
+                                            "sqs:SendMessage"),
+                                    "Resource", directOutputStreamNames.values().stream()
+                                            .flatMap(List::stream)
+                                            .distinct()
+                                            .sorted()
+                                            .map(streamName -> "arn:aws:sqs:" + awsRegion + ":" + awsAccountId + ":" + streamStore.getAwsQueueName(organizationName, streamName))
+                                            .toList()),
+                            Map.of(
+                                    "Effect", "Allow",
+                                    "Action", List.of(
+                                            "dynamodb:GetItem"),
+                                    "Resource", List.of(
+                                            "arn:aws:dynamodb:" + awsRegion + ":" + awsAccountId + ":table/" + topicsSchema.tableName()),
+                                    "Condition", Map.of(
+                                            "ForAllValues:StringEquals", Map.of(
+                                                    "dynamodb:LeadingKeys", List.of(
+                                                            topicsSchema.partitionKey(topicsKey).getValue().s()))))))));
+        } else {
+            // Direct outputs are disabled or none of the output topics qualify anymore
+            iamUtil.ensurePolicyDetachedFromRole(functionRoleName, directOutputsPolicyName);
+        }
+
         // Determine Architecture and SnapStart setting
         final SnapStartApplyOn snapStartApplyOn = switch (runtime) {
             // Supported runtimes: https://docs.aws.amazon.com/lambda/latest/dg/snapstart.html#snapstart-runtimes
@@ -320,6 +404,17 @@ public class LambdaDeployerImpl implements LambdaDeployer {
                 .put(DATASPRAY_ENDPOINT_ENV, endpoint));
         dynamoStateOpt.ifPresent(s -> envBuilder
                 .put(DATASPRAY_STATE_TABLE_NAME_ENV, customerDynamoStore.getTableName(organizationName)));
+        if (!inputQueueNames.isEmpty()) {
+            envBuilder.put(DATASPRAY_CLAIM_CHECK_ENV, "true");
+        }
+        if (!directOutputStreamNames.isEmpty()) {
+            envBuilder.put(DATASPRAY_DIRECT_OUTPUTS_ENV, gson.toJson(directOutputStreamNames));
+            envBuilder.put(DATASPRAY_DIRECT_OUTPUT_QUEUE_URL_ENV, streamStore.getAwsQueueUrl(organizationName, DIRECT_OUTPUT_QUEUE_URL_STREAM_PLACEHOLDER));
+            envBuilder.put(DATASPRAY_DIRECT_OUTPUTS_TOPICS_ENV, gson.toJson(Map.of(
+                    "tableName", topicsSchema.tableName(),
+                    "key", Maps.transformValues(topicsSchema.primaryKey(topicsKey), AttributeValue::s),
+                    "version", directOutputsTopicsOpt.get().getVersion())));
+        }
         Environment env = Environment.builder()
                 .variables(envBuilder.build()).build();
         final String codeSha256;
@@ -935,6 +1030,36 @@ public class LambdaDeployerImpl implements LambdaDeployer {
                 : Optional.empty();
     }
 
+    /**
+     * Stream names keyed by output topic for topics that can be written to directly, skipping topics with batch or
+     * store destinations which require the ingest API. Queues are created if they don't exist yet.
+     * <p>
+     * Only valid for the given topics version, the task checks it is unchanged before sending directly.
+     */
+    private ImmutableMap<String, ImmutableList<String>> getDirectOutputStreamNames(String organizationName, TopicStore.Topics topics, ImmutableSet<String> outputQueueNames) {
+        ImmutableMap.Builder<String, ImmutableList<String>> directOutputsBuilder = ImmutableMap.builder();
+        for (String outputQueueName : outputQueueNames) {
+            Optional<TopicStore.Topic> topicOpt = topics.getTopic(outputQueueName);
+            if (topicOpt.isEmpty()
+                || topicOpt.get().getBatch().isPresent()
+                || topicOpt.get().getStore().isPresent()
+                || topicOpt.get().getStreams().isEmpty()) {
+                continue;
+            }
+            ImmutableList<String> streamNames = topicOpt.get().getStreams().stream()
+                    .map(TopicStore.Stream::getName)
+                    .collect(ImmutableList.toImmutableList());
+            for (String streamName : streamNames) {
+                if (!streamStore.streamExists(organizationName, streamName)) {
+                    streamStore.createStream(organizationName, streamName);
+                    log.info("Created queue {}", streamName);
+                }
+            }
+            directOutputsBuilder.put(outputQueueName, streamNames);
+        }
+        return directOutputsBuilder.build();
+    }
+
     private String generateVersionDescription(String taskId, ImmutableSet<String> inputQueueNames, ImmutableSet<String> outputQueueNames, Optional<Endpoint> endpointOpt) {
         return "Task " + taskId
                + " inputs [" + String.join(", ", inputQueueNames) + "]"
@@ -24,6 +24,7 @@ package io.dataspray.store.impl;
 
 import io.dataspray.singletable.DynamoTable;
 import io.quarkus.runtime.annotations.RegisterForReflection;
+import jakarta.annotation.Nullable;
 import lombok.NonNull;
 import lombok.Value;
 
@@ -83,4 +84,18 @@ public class QueryHistoryRecord {
      */
     @NonNull
     Long ttlInEpochSec;
+
+    /**
+     * Whether the results of an earlier identical query were reused instead of starting a new execution.
+     * Absent on records written before query result caching.
+     */
+    @Nullable
+    Boolean cacheHit;
+
+    /**
+     * Athena query execution ID whose results this submission reuses, in which case the queryExecutionId of this
+     * record is of its own. Absent if the queryExecutionId is the Athena query execution ID itself.
+     */
+    @Nullable
+    String reusedQueryExecutionId;
 }
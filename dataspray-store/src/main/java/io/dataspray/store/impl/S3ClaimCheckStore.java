@@ -0,0 +1,78 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store.impl;
+
+import com.google.common.hash.Hashing;
+import io.dataspray.store.ClaimCheckStore;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.MediaType;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+
+import static io.dataspray.store.impl.FirehoseS3AthenaBatchStore.ETL_BUCKET_PROP_NAME;
+
+/**
+ * Stores claim-checked messages in the ETL bucket under a dedicated prefix which is expired by a lifecycle rule after
+ * the stream retention period.
+ */
+@Slf4j
+@ApplicationScoped
+public class S3ClaimCheckStore implements ClaimCheckStore {
+    /** Matches io.dataspray.runner.Entrypoint.CLAIM_CHECK_URI_PREFIX and CLAIM_CHECK_URI_PREFIX in entrypoint.ts */
+    public static final String CLAIM_CHECK_URI_PREFIX = "s3://";
+    public static final String CLAIM_CHECK_PREFIX = "claim-check/";
+    /** Must outlive any message referencing it, streams retain messages for 14 days */
+    public static final int CLAIM_CHECK_RETENTION_IN_DAYS = 15;
+
+    @ConfigProperty(name = ETL_BUCKET_PROP_NAME)
+    String etlBucketName;
+
+    @Inject
+    S3Client s3Client;
+
+    @Override
+    public ClaimCheck put(String organizationName, String topicName, byte[] messageBytes, MediaType contentType) {
+        String messageHash = Hashing.sha256().hashBytes(messageBytes).toString();
+        String key = getClaimCheckKey(organizationName, topicName, messageHash);
+        s3Client.putObject(PutObjectRequest.builder()
+                        .bucket(etlBucketName)
+                        .key(key)
+                        .contentType(contentType.toString())
+                        .build(),
+                RequestBody.fromBytes(messageBytes));
+        log.debug("Stored claim-check message of {} bytes at {}", messageBytes.length, key);
+        return new ClaimCheck(CLAIM_CHECK_URI_PREFIX + etlBucketName + "/" + key, messageHash);
+    }
+
+    public static String getClaimCheckOrganizationPrefix(String organizationName) {
+        return CLAIM_CHECK_PREFIX + "organization=" + organizationName + "/";
+    }
+
+    private String getClaimCheckKey(String organizationName, String topicName, String messageHash) {
+        return getClaimCheckOrganizationPrefix(organizationName) + "topic=" + topicName + "/" + messageHash;
+    }
+}
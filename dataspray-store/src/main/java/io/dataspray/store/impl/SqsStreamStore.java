@@ -22,24 +22,52 @@
 
 package io.dataspray.store.impl;
 
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Queues;
+import com.google.common.hash.Hashing;
+import io.dataspray.store.ClaimCheckStore.ClaimCheck;
 import io.dataspray.store.CustomerLogger;
 import io.dataspray.store.StreamStore;
+import io.dataspray.store.util.BatchFailure;
+import io.dataspray.store.util.FutureUtil;
+import io.quarkus.runtime.Shutdown;
+import io.quarkus.runtime.Startup;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import lombok.NonNull;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.sqs.SqsAsyncClient;
 import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.CreateQueueRequest;
-import software.amazon.awssdk.services.sqs.model.CreateQueueResponse;
 import software.amazon.awssdk.services.sqs.model.GetQueueAttributesRequest;
 import software.amazon.awssdk.services.sqs.model.GetQueueUrlRequest;
+import software.amazon.awssdk.services.sqs.model.MessageAttributeValue;
 import software.amazon.awssdk.services.sqs.model.QueueAttributeName;
 import software.amazon.awssdk.services.sqs.model.QueueDoesNotExistException;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchRequestEntry;
+import software.amazon.awssdk.services.sqs.model.SendMessageBatchResponse;
 import software.amazon.awssdk.services.sqs.model.SendMessageRequest;
+import software.amazon.awssdk.services.sqs.model.SendMessageResponse;
 import software.amazon.awssdk.services.sqs.model.SqsException;
 
+import java.time.Duration;
+import java.util.Deque;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 import static io.dataspray.store.impl.LambdaDeployerImpl.LAMBDA_DEFAULT_TIMEOUT;
 
@@ -51,44 +79,398 @@ public class SqsStreamStore implements StreamStore {
     // ARN with queue name wildcard is supported:
     // https://docs.aws.amazon.com/AWSSimpleQueueService/latest/SQSDeveloperGuide/sqs-basic-examples-of-iam-policies.html
     public static final String CUSTOMER_QUEUE_WILDCARD = CUSTOMER_QUEUE_PREFIX + "*" + CUSTOMER_QUEUE_SUFFIX;
+    /** SQS limit of entries in a single SendMessageBatch request */
+    public static final int SEND_BATCH_MAX_ENTRIES = 10;
+    /** SQS limit of the sum of all message sizes in a single SendMessageBatch request */
+    public static final int SEND_BATCH_MAX_BYTES = 256 * 1024;
+    /**
+     * Message attribute carrying a binary message as is. Matches io.dataspray.runner.Entrypoint.BINARY_DATA_ATTRIBUTE_NAME
+     * and BINARY_DATA_ATTRIBUTE_NAME in the TypeScript runner entrypoint.ts
+     */
+    public static final String BINARY_DATA_ATTRIBUTE_NAME = "ds-data";
+    /** SQS requires a non-empty body, used for messages carried in {@link #BINARY_DATA_ATTRIBUTE_NAME} */
+    public static final String BINARY_DATA_BODY_PLACEHOLDER = "ds-data";
+    /** Size counted towards the SQS message size limit on top of a message carried in {@link #BINARY_DATA_ATTRIBUTE_NAME} */
+    public static final int BINARY_DATA_OVERHEAD_BYTES = BINARY_DATA_BODY_PLACEHOLDER.length()
+                                                         + BINARY_DATA_ATTRIBUTE_NAME.length()
+                                                         + "Binary".length();
+    /**
+     * Message attribute carrying a reference to a message stored in a claim-check store. Matches
+     * io.dataspray.runner.Entrypoint.CLAIM_CHECK_ATTRIBUTE_NAME and CLAIM_CHECK_ATTRIBUTE_NAME in the TypeScript runner
+     * entrypoint.ts
+     */
+    public static final String CLAIM_CHECK_ATTRIBUTE_NAME = "ds-claim-check";
+    /** SQS requires a non-empty body, used for messages referenced by {@link #CLAIM_CHECK_ATTRIBUTE_NAME} */
+    public static final String CLAIM_CHECK_BODY_PLACEHOLDER = "ds-claim-check";
+    /** Queue buffers not used for this long are discarded so that buffers of every queue ever sent to don't pile up */
+    private static final Duration QUEUE_BUFFER_IDLE_EXPIRY = Duration.ofMinutes(1);
 
     @ConfigProperty(name = "aws.accountId")
     String awsAccountId;
     @ConfigProperty(name = "aws.region")
     String awsRegion;
 
+    /**
+     * Buffered mode collects messages submitted concurrently to the same queue and sends them together using
+     * SendMessageBatch once either the linger time or batch size is reached.
+     * <p>
+     * Off by default as a Lambda instance serves a single request at a time, there is nothing to batch with and every
+     * send would just wait out the linger time. Only enable where requests are served concurrently.
+     */
+    @ConfigProperty(name = "sqs.stream.buffer.enabled", defaultValue = "false")
+    boolean bufferEnabled;
+    @ConfigProperty(name = "sqs.stream.buffer.lingerMs", defaultValue = "10")
+    long bufferLingerMs;
+    @ConfigProperty(name = "sqs.stream.buffer.maxEntries", defaultValue = "" + SEND_BATCH_MAX_ENTRIES)
+    int bufferMaxEntries;
+
     @Inject
     SqsClient sqsClient;
     @Inject
+    SqsAsyncClient sqsAsyncClient;
+    @Inject
     CustomerLogger customerLog;
 
+    private final ConcurrentMap<String, QueueBuffer> queueBuffers = Maps.newConcurrentMap();
+    private ScheduledExecutorService bufferFlushScheduler;
+
+    @Startup
+    void init() {
+        bufferFlushScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual()
+                .name("sqs-buffer-flush")
+                .factory());
+        bufferFlushScheduler.scheduleWithFixedDelay(this::retireIdleQueueBuffers,
+                QUEUE_BUFFER_IDLE_EXPIRY.toMillis(), QUEUE_BUFFER_IDLE_EXPIRY.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Shutdown
+    void shutdown() {
+        queueBuffers.values().forEach(QueueBuffer::flush);
+        queueBuffers.values().forEach(QueueBuffer::awaitSent);
+        bufferFlushScheduler.shutdown();
+    }
 
     @Override
     public String submit(String organizationName, String streamName, Optional<String> messageIdOpt, String messageKey, String messageStr) {
+        return FutureUtil.join(submitAsync(organizationName, streamName, messageIdOpt, messageKey, messageStr));
+    }
 
-        try {
-            return sendMessage(organizationName, streamName, messageKey, messageIdOpt, messageStr);
-        } catch (SqsException ex) {
-            if (isQueueDoesNotExist(ex)) {
-                // If the queue does not exist, create it
-                createStream(organizationName, streamName);
+    @Override
+    public CompletableFuture<String> submitAsync(String organizationName, String streamName, Optional<String> messageIdOpt, String messageKey, String messageStr) {
+        return submitAsync(organizationName, streamName, new StreamMessage(messageIdOpt, messageKey, messageStr));
+    }
+
+    @Override
+    public CompletableFuture<String> submitBinaryAsync(String organizationName, String streamName, Optional<String> messageIdOpt, String messageKey, byte[] messageBytes) {
+        return submitAsync(organizationName, streamName, new StreamMessage(
+                // Queues use content-based deduplication which only considers the body, which is a placeholder here
+                messageIdOpt.or(() -> Optional.of(Hashing.sha256().hashBytes(messageBytes).toString())),
+                messageKey,
+                BINARY_DATA_BODY_PLACEHOLDER,
+                messageBytes,
+                null));
+    }
 
-                // and retry
-                return sendMessage(organizationName, streamName, messageKey, messageIdOpt, messageStr);
-            } else {
-                throw ex;
+    @Override
+    public CompletableFuture<String> submitClaimCheckAsync(String organizationName, String streamName, Optional<String> messageIdOpt, String messageKey, ClaimCheck claimCheck) {
+        return submitAsync(organizationName, streamName, new StreamMessage(
+                // Queues use content-based deduplication which only considers the body, which is a placeholder here
+                messageIdOpt.or(() -> Optional.of(claimCheck.getMessageHash())),
+                messageKey,
+                CLAIM_CHECK_BODY_PLACEHOLDER,
+                null,
+                claimCheck.getUri()));
+    }
+
+    private CompletableFuture<String> submitAsync(String organizationName, String streamName, StreamMessage message) {
+        if (bufferEnabled) {
+            String queueUrl = getAwsQueueUrl(organizationName, streamName);
+            while (true) {
+                QueueBuffer queueBuffer = queueBuffers.computeIfAbsent(queueUrl, k -> new QueueBuffer(organizationName, streamName));
+                Optional<CompletableFuture<String>> messageIdFutureOpt = queueBuffer.submit(message);
+                if (messageIdFutureOpt.isPresent()) {
+                    return messageIdFutureOpt.get();
+                }
+                // Buffer was retired concurrently, make sure it's gone and try again with a new one
+                queueBuffers.remove(queueUrl, queueBuffer);
             }
         }
+
+        return createIfNotExists(organizationName, streamName, () ->
+                sendMessage(organizationName, streamName, message));
     }
 
-    private String sendMessage(String organizationName, String streamName, String groupId, Optional<String> deduplicationId, String messageStr) {
-        return sqsClient.sendMessage(SendMessageRequest.builder()
-                        .messageGroupId(groupId)
-                        .messageDeduplicationId(deduplicationId.orElse(null))
+    private CompletableFuture<String> sendMessage(String organizationName, String streamName, StreamMessage message) {
+        return sqsAsyncClient.sendMessage(SendMessageRequest.builder()
+                        .messageGroupId(message.getMessageKey())
+                        .messageDeduplicationId(message.getMessageIdOpt().orElse(null))
                         .queueUrl(getAwsQueueUrl(organizationName, streamName))
-                        .messageBody(messageStr)
+                        .messageBody(message.getMessageStr())
+                        .messageAttributes(getMessageAttributes(message))
                         .build())
-                .messageId();
+                .thenApply(SendMessageResponse::messageId);
+    }
+
+    private Map<String, MessageAttributeValue> getMessageAttributes(StreamMessage message) {
+        if (message.getMessageBytes() != null) {
+            return Map.of(BINARY_DATA_ATTRIBUTE_NAME, MessageAttributeValue.builder()
+                    .dataType("Binary")
+                    .binaryValue(SdkBytes.fromByteArrayUnsafe(message.getMessageBytes()))
+                    .build());
+        } else if (message.getClaimCheckUri() != null) {
+            return Map.of(CLAIM_CHECK_ATTRIBUTE_NAME, MessageAttributeValue.builder()
+                    .dataType("String")
+                    .stringValue(message.getClaimCheckUri())
+                    .build());
+        } else {
+            return Map.of();
+        }
+    }
+
+    /** Size counted towards SQS limits */
+    private long getMessageSize(StreamMessage message) {
+        if (message.getMessageBytes() != null) {
+            return BINARY_DATA_OVERHEAD_BYTES + message.getMessageBytes().length;
+        }
+        long size = Utf8.encodedLength(message.getMessageStr());
+        if (message.getClaimCheckUri() != null) {
+            size += CLAIM_CHECK_ATTRIBUTE_NAME.length() + "String".length() + Utf8.encodedLength(message.getClaimCheckUri());
+        }
+        return size;
+    }
+
+    /**
+     * Sends using the given sender and if the queue does not exist, creates it and retries.
+     */
+    private <T> CompletableFuture<T> createIfNotExists(String organizationName, String streamName, Supplier<CompletableFuture<T>> sender) {
+        return FutureUtil.recover(sender.get(), SqsException.class, ex -> {
+            if (!isQueueDoesNotExist(ex)) {
+                return CompletableFuture.failedFuture(ex);
+            }
+
+            // If the queue does not exist, create it without blocking the SDK completion thread
+            return createStreamAsync(organizationName, streamName)
+                    // and retry
+                    .thenCompose(v -> sender.get());
+        });
+    }
+
+    /**
+     * Discards buffers of queues that were not sent to recently. Buffers that still have messages to send are kept.
+     */
+    private void retireIdleQueueBuffers() {
+        long idleSinceMillis = System.currentTimeMillis() - QUEUE_BUFFER_IDLE_EXPIRY.toMillis();
+        queueBuffers.values().removeIf(queueBuffer -> queueBuffer.retireIfIdle(idleSinceMillis));
+    }
+
+    @Override
+    public ImmutableList<BatchFailure> submitBatch(String organizationName, String streamName, List<StreamMessage> messages) {
+        return FutureUtil.join(submitBatchAsync(organizationName, streamName, messages));
+    }
+
+    @Override
+    public CompletableFuture<ImmutableList<BatchFailure>> submitBatchAsync(String organizationName, String streamName, List<StreamMessage> messages) {
+        // Group messages into as few requests as SQS limits allow
+        List<List<SendMessageBatchRequestEntry>> batches = Lists.newArrayList();
+        List<SendMessageBatchRequestEntry> entries = Lists.newArrayList();
+        long entriesBytes = 0;
+        for (int index = 0; index < messages.size(); index++) {
+            StreamMessage message = messages.get(index);
+            long messageBytes = getMessageSize(message);
+            if (!entries.isEmpty()
+                && (entries.size() >= SEND_BATCH_MAX_ENTRIES
+                    || entriesBytes + messageBytes > SEND_BATCH_MAX_BYTES)) {
+                batches.add(entries);
+                entries = Lists.newArrayList();
+                entriesBytes = 0;
+            }
+            entries.add(toBatchRequestEntry(index, message));
+            entriesBytes += messageBytes;
+        }
+        if (!entries.isEmpty()) {
+            batches.add(entries);
+        }
+
+        // Each batch is sent only after the previous one completed to keep FIFO ordering within a message group
+        CompletableFuture<ImmutableList.Builder<BatchFailure>> failuresBuilderFuture = CompletableFuture.completedFuture(ImmutableList.builder());
+        for (List<SendMessageBatchRequestEntry> batch : batches) {
+            failuresBuilderFuture = failuresBuilderFuture.thenCompose(failuresBuilder -> createIfNotExists(organizationName, streamName,
+                    () -> sendMessageBatchAsync(organizationName, streamName, batch))
+                    .thenApply(response -> failuresBuilder.addAll(toBatchFailures(response))));
+        }
+        return failuresBuilderFuture.thenApply(ImmutableList.Builder::build);
+    }
+
+    private SendMessageBatchRequestEntry toBatchRequestEntry(int index, StreamMessage message) {
+        return SendMessageBatchRequestEntry.builder()
+                // Entry id is used to map results back to the original message
+                .id(Integer.toString(index))
+                .messageGroupId(message.getMessageKey())
+                .messageDeduplicationId(message.getMessageIdOpt().orElse(null))
+                .messageBody(message.getMessageStr())
+                .messageAttributes(getMessageAttributes(message))
+                .build();
+    }
+
+    private List<BatchFailure> toBatchFailures(SendMessageBatchResponse response) {
+        return response.failed()
+                .stream()
+                .map(failed -> new BatchFailure(
+                        Integer.parseInt(failed.id()),
+                        failed.code() + ": " + failed.message()))
+                .toList();
+    }
+
+    private CompletableFuture<SendMessageBatchResponse> sendMessageBatchAsync(String organizationName, String streamName, List<SendMessageBatchRequestEntry> entries) {
+        return sqsAsyncClient.sendMessageBatch(SendMessageBatchRequest.builder()
+                .queueUrl(getAwsQueueUrl(organizationName, streamName))
+                .entries(entries)
+                .build());
+    }
+
+    /**
+     * Collects messages submitted concurrently to the same queue and sends them together using SendMessageBatch.
+     *
+     * Batches are drained in submission order and each is sent only after the previous one completed so that FIFO
+     * ordering within a message group is kept across batches.
+     */
+    private class QueueBuffer {
+        private final String organizationName;
+        private final String streamName;
+        private final Object bufferLock = new Object();
+        private final Deque<PendingMessage> buffer = Queues.newArrayDeque();
+        private long bufferBytes = 0;
+        private CompletableFuture<Void> sendChain = CompletableFuture.completedFuture(null);
+        private long lastSubmittedAtMillis = System.currentTimeMillis();
+        /** Once retired, a buffer no longer accepts messages and a new buffer must be created instead */
+        private boolean retired = false;
+
+        private QueueBuffer(String organizationName, String streamName) {
+            this.organizationName = organizationName;
+            this.streamName = streamName;
+        }
+
+        /**
+         * @return Future of SQS sent Message ID or empty if this buffer is retired
+         */
+        private Optional<CompletableFuture<String>> submit(StreamMessage message) {
+            PendingMessage pendingMessage = new PendingMessage(
+                    message,
+                    getMessageSize(message),
+                    new CompletableFuture<>());
+            boolean flushNow = false;
+            synchronized (bufferLock) {
+                if (retired) {
+                    return Optional.empty();
+                }
+                lastSubmittedAtMillis = System.currentTimeMillis();
+                buffer.addLast(pendingMessage);
+                bufferBytes += pendingMessage.getBytes();
+                if (buffer.size() >= Math.min(bufferMaxEntries, SEND_BATCH_MAX_ENTRIES)
+                    || bufferBytes >= SEND_BATCH_MAX_BYTES) {
+                    flushNow = true;
+                } else if (buffer.size() == 1) {
+                    // First message of a new batch, make sure it doesn't wait longer than the linger time
+                    bufferFlushScheduler.schedule(this::flush, bufferLingerMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            if (flushNow) {
+                flush();
+            }
+            return Optional.of(pendingMessage.getMessageIdFuture());
+        }
+
+        /**
+         * Retires this buffer if it has nothing left to send and no message was submitted since the given time. Only
+         * an idle buffer is retired so that a buffer replacing it cannot send ahead of messages still in flight.
+         *
+         * @return Whether this buffer is now retired
+         */
+        private boolean retireIfIdle(long idleSinceMillis) {
+            synchronized (bufferLock) {
+                if (!buffer.isEmpty()
+                    || !sendChain.isDone()
+                    || lastSubmittedAtMillis > idleSinceMillis) {
+                    return false;
+                }
+                retired = true;
+                return true;
+            }
+        }
+
+        private void flush() {
+            synchronized (bufferLock) {
+                while (!buffer.isEmpty()) {
+                    List<PendingMessage> batch = drainBatch();
+                    sendChain = sendChain.thenCompose(v -> send(batch));
+                }
+            }
+        }
+
+        private void awaitSent() {
+            CompletableFuture<Void> sendChainSnapshot;
+            synchronized (bufferLock) {
+                sendChainSnapshot = sendChain;
+            }
+            sendChainSnapshot.join();
+        }
+
+        /** Must be called while holding bufferLock */
+        private List<PendingMessage> drainBatch() {
+            List<PendingMessage> batch = Lists.newArrayList();
+            long batchBytes = 0;
+            while (!buffer.isEmpty()
+                   && batch.size() < SEND_BATCH_MAX_ENTRIES
+                   && (batch.isEmpty() || batchBytes + buffer.peekFirst().getBytes() <= SEND_BATCH_MAX_BYTES)) {
+                PendingMessage pendingMessage = buffer.removeFirst();
+                bufferBytes -= pendingMessage.getBytes();
+                batchBytes += pendingMessage.getBytes();
+                batch.add(pendingMessage);
+            }
+            return batch;
+        }
+
+        /**
+         * @return Future that always completes normally once every message in the batch has its result
+         */
+        private CompletableFuture<Void> send(List<PendingMessage> batch) {
+            List<SendMessageBatchRequestEntry> entries = Lists.newArrayListWithCapacity(batch.size());
+            for (int index = 0; index < batch.size(); index++) {
+                entries.add(toBatchRequestEntry(index, batch.get(index).getMessage()));
+            }
+
+            CompletableFuture<SendMessageBatchResponse> responseFuture;
+            try {
+                responseFuture = createIfNotExists(organizationName, streamName, () -> sendMessageBatchAsync(organizationName, streamName, entries));
+            } catch (RuntimeException ex) {
+                responseFuture = CompletableFuture.failedFuture(ex);
+            }
+            return responseFuture
+                    .handle((response, th) -> {
+                        if (th != null) {
+                            batch.forEach(pendingMessage -> pendingMessage.getMessageIdFuture().completeExceptionally(th));
+                            return null;
+                        }
+                        response.successful().forEach(successful -> batch.get(Integer.parseInt(successful.id()))
+                                .getMessageIdFuture()
+                                .complete(successful.messageId()));
+                        response.failed().forEach(failed -> batch.get(Integer.parseInt(failed.id()))
+                                .getMessageIdFuture()
+                                .completeExceptionally(SqsException.builder()
+                                        .message(failed.code() + ": " + failed.message())
+                                        .build()));
+                        return null;
+                    });
+        }
+    }
+
+    @Value
+    private static class PendingMessage {
+        @NonNull
+        StreamMessage message;
+        long bytes;
+        @NonNull
+        CompletableFuture<String> messageIdFuture;
     }
 
     @Override
@@ -124,7 +506,17 @@ public class SqsStreamStore implements StreamStore {
 
     @Override
     public void createStream(String organizationName, String streamName) {
-        CreateQueueResponse queueResponse = sqsClient.createQueue(CreateQueueRequest.builder()
+        sqsClient.createQueue(getCreateQueueRequest(organizationName, streamName));
+        customerLog.info("Created new queue " + streamName, organizationName);
+    }
+
+    private CompletableFuture<Void> createStreamAsync(String organizationName, String streamName) {
+        return sqsAsyncClient.createQueue(getCreateQueueRequest(organizationName, streamName))
+                .thenAccept(response -> customerLog.info("Created new queue " + streamName, organizationName));
+    }
+
+    private CreateQueueRequest getCreateQueueRequest(String organizationName, String streamName) {
+        return CreateQueueRequest.builder()
                 .queueName(getAwsQueueName(organizationName, streamName))
                 // Docs: https://docs.aws.amazon.com/AWSSimpleQueueService/latest/APIReference/API_CreateQueue.html#API_CreateQueue_RequestParameters
                 .attributes(Map.of(
@@ -137,10 +529,10 @@ public class SqsStreamStore implements StreamStore {
                         QueueAttributeName.VISIBILITY_TIMEOUT, Integer.toString(LAMBDA_DEFAULT_TIMEOUT),
                         QueueAttributeName.MESSAGE_RETENTION_PERIOD, String.valueOf(14 * 24 * 60 * 60),
                         QueueAttributeName.RECEIVE_MESSAGE_WAIT_TIME_SECONDS, String.valueOf(20)))
-                .build());
-        customerLog.info("Created new queue " + streamName, organizationName);
+                .build();
     }
 
+    @Override
     public String getAwsQueueUrl(String organizationName, String queueName) {
         return "https://sqs." + awsRegion + ".amazonaws.com/"
                + awsAccountId + "/"
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store.impl;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.gson.stream.MalformedJsonException;
+import io.dataspray.store.TopicStore;
+import io.quarkus.arc.properties.IfBuildProperty;
+import jakarta.annotation.Priority;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.inject.Alternative;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.time.Instant;
+import java.util.Optional;
+
+import static io.dataspray.store.impl.FirehoseS3AthenaBatchStore.*;
+
+/**
+ * Enriches JSON messages in a single pass by copying the message token by token and appending the enrichment
+ * attributes at the end of the top-level object, without building an intermediate tree.
+ * <p>
+ * Output is equivalent to {@link GsonCustomerMessageSerde} except numbers are copied verbatim and enrichment
+ * attributes are always last.
+ */
+@Slf4j
+@Alternative
+@Priority(1)
+@ApplicationScoped
+@IfBuildProperty(name = StreamingCustomerMessageSerde.STREAMING_SERDE_ENABLED_PROP_NAME, stringValue = "true", enableIfMissing = true)
+public class StreamingCustomerMessageSerde extends GsonCustomerMessageSerde {
+
+    public static final String STREAMING_SERDE_ENABLED_PROP_NAME = "customerMessageSerde.streaming.enable";
+    /** Attributes added during enrichment, dropped from the original message if present to avoid duplicates */
+    private static final ImmutableSet<String> ENRICHMENT_ATTRIBUTES = ImmutableSet.of(
+            ETL_MESSAGE_TS,
+            ETL_MESSAGE_KEY,
+            ETL_MESSAGE_ID,
+            ETL_PARTITION_KEY_RETENTION,
+            ETL_PARTITION_KEY_ORGANIZATION,
+            ETL_PARTITION_KEY_TOPIC);
+    /** Room for enrichment attributes on top of the message size to avoid growing the output buffer */
+    private static final int ENRICHMENT_BYTES_ESTIMATE = 256;
+
+    @Override
+    public byte[] enrichJsonToBytes(String organizationName, String topicName, Optional<TopicStore.BatchRetention> batchRetentionOpt, Optional<String> messageIdOpt, String messageKey, String messageStr) {
+        return enrichJsonToBytes(organizationName, topicName, batchRetentionOpt, messageIdOpt, messageKey,
+                new StringReader(messageStr), messageStr.length());
+    }
+
+    @Override
+    public byte[] enrichJsonToBytes(String organizationName, String topicName, Optional<TopicStore.BatchRetention> batchRetentionOpt, Optional<String> messageIdOpt, String messageKey, byte[] messageBytes, int offset, int length) {
+        // Decoded as it is read instead of copying the whole message into a String first
+        return enrichJsonToBytes(organizationName, topicName, batchRetentionOpt, messageIdOpt, messageKey,
+                new InputStreamReader(new ByteArrayInputStream(messageBytes, offset, length), Charsets.UTF_8), length);
+    }
+
+    private byte[] enrichJsonToBytes(String organizationName, String topicName, Optional<TopicStore.BatchRetention> batchRetentionOpt, Optional<String> messageIdOpt, String messageKey, Reader messageReader, int messageLengthEstimate) {
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream(messageLengthEstimate + ENRICHMENT_BYTES_ESTIMATE);
+        try (JsonReader reader = new JsonReader(messageReader);
+             JsonWriter writer = new JsonWriter(new OutputStreamWriter(byteArrayOutputStream, Charsets.UTF_8))) {
+            // Match GsonUtil serialization: no html escaping, no nulls, not pretty printed as in S3 each json is
+            // delimited by newline
+            writer.setHtmlSafe(false);
+            writer.setSerializeNulls(false);
+
+            reader.beginObject();
+            writer.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (ENRICHMENT_ATTRIBUTES.contains(name)) {
+                    reader.skipValue();
+                    continue;
+                }
+                writer.name(name);
+                copyValue(reader, writer);
+            }
+            reader.endObject();
+
+            // Add extra attributes
+            writer.name(ETL_MESSAGE_TS).value(Instant.now().toEpochMilli());
+            writer.name(ETL_MESSAGE_KEY).value(messageKey);
+            if (messageIdOpt.isPresent()) {
+                writer.name(ETL_MESSAGE_ID).value(messageIdOpt.get());
+            }
+
+            // Add metadata for Firehose dynamic partitioning
+            if (batchRetentionOpt.isPresent()) {
+                writer.name(ETL_PARTITION_KEY_RETENTION).value(batchRetentionOpt.get().name());
+            }
+            writer.name(ETL_PARTITION_KEY_ORGANIZATION).value(organizationName);
+            writer.name(ETL_PARTITION_KEY_TOPIC).value(topicName);
+            writer.endObject();
+
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("JSON document was not fully consumed.");
+            }
+        } catch (MalformedJsonException | EOFException | IllegalStateException ex) {
+            throw new JsonSyntaxException(ex);
+        } catch (IOException ex) {
+            throw new JsonIOException(ex);
+        }
+        return byteArrayOutputStream.toByteArray();
+    }
+
+    private void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT -> {
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copyValue(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+            }
+            case BEGIN_ARRAY -> {
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+            }
+            case STRING -> writer.value(reader.nextString());
+            // Copy number literal as is instead of parsing it
+            case NUMBER -> writer.jsonValue(reader.nextString());
+            case BOOLEAN -> writer.value(reader.nextBoolean());
+            case NULL -> {
+                reader.nextNull();
+                writer.nullValue();
+            }
+            default -> throw new JsonSyntaxException("Unexpected token " + reader.peek());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+
+public class FutureUtil {
+
+    /**
+     * Waits for the future and rethrows the original exception instead of it being wrapped in a
+     * {@link CompletionException}.
+     */
+    public static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException ex) {
+            throw unwrap(ex);
+        }
+    }
+
+    /**
+     * On failure, recovers using the given function if the cause is of the given type, otherwise keeps the failure.
+     */
+    public static <T, E extends Throwable> CompletableFuture<T> recover(
+            CompletableFuture<T> future,
+            Class<E> exceptionClass,
+            Function<E, CompletionStage<T>> recovery) {
+        return future.exceptionallyCompose(th -> {
+            Throwable cause = th instanceof CompletionException && th.getCause() != null ? th.getCause() : th;
+            return exceptionClass.isInstance(cause)
+                    ? recovery.apply(exceptionClass.cast(cause))
+                    : CompletableFuture.failedFuture(cause);
+        });
+    }
+
+    private static RuntimeException unwrap(CompletionException ex) {
+        return ex.getCause() instanceof RuntimeException
+                ? (RuntimeException) ex.getCause()
+                : ex;
+    }
+
+    private FutureUtil() {
+        // disable ctor
+    }
+}
@@ -23,18 +23,22 @@
 package io.dataspray.store.util;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParser;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import software.amazon.awssdk.services.iam.IamClient;
 import software.amazon.awssdk.services.iam.model.CreateRoleRequest;
+import software.amazon.awssdk.services.iam.model.DeleteRolePolicyRequest;
 import software.amazon.awssdk.services.iam.model.GetRolePolicyRequest;
 import software.amazon.awssdk.services.iam.model.GetRoleRequest;
 import software.amazon.awssdk.services.iam.model.NoSuchEntityException;
 import software.amazon.awssdk.services.iam.model.PutRolePolicyRequest;
 import software.amazon.awssdk.services.iam.model.Role;
 
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 
@@ -104,4 +108,43 @@ public class IamUtil {
         }
     }
 
+    /**
+     * Same as {@link #ensurePolicyAttachedToRole} but also replaces an attached policy if its document differs.
+     */
+    public void ensurePolicyUpToDateOnRole(String roleName, String policyName, String policyDocument) {
+        String attachedPolicyDocument;
+        try {
+            attachedPolicyDocument = URLDecoder.decode(iamClient.getRolePolicy(GetRolePolicyRequest.builder()
+                            .roleName(roleName)
+                            .policyName(policyName)
+                            .build())
+                    .policyDocument(), StandardCharsets.UTF_8);
+        } catch (NoSuchEntityException ex) {
+            ensurePolicyAttachedToRole(roleName, policyName, policyDocument);
+            return;
+        }
+        if (JsonParser.parseString(attachedPolicyDocument).equals(JsonParser.parseString(policyDocument))) {
+            log.debug("Found role {} policy {} up to date", roleName, policyName);
+            return;
+        }
+        iamClient.putRolePolicy(PutRolePolicyRequest.builder()
+                .roleName(roleName)
+                .policyName(policyName)
+                .policyDocument(policyDocument)
+                .build());
+        log.info("Updated role {} policy {}", roleName, policyName);
+    }
+
+    public void ensurePolicyDetachedFromRole(String roleName, String policyName) {
+        try {
+            iamClient.deleteRolePolicy(DeleteRolePolicyRequest.builder()
+                    .roleName(roleName)
+                    .policyName(policyName)
+                    .build());
+            log.info("Deleted role {} policy {}", roleName, policyName);
+        } catch (NoSuchEntityException ex) {
+            log.debug("Role {} policy {} not found, nothing to delete", roleName, policyName);
+        }
+    }
+
 }
@@ -119,6 +119,28 @@ public class ApiAccessStoreTest extends AbstractTest {
         assertTrue(usageKeyExists(apiAccess2));
     }
 
+    @Test
+    public void testUsageKeyCached() throws Exception {
+        DynamoApiGatewayApiAccessStore dynamoApiAccessStore = (DynamoApiGatewayApiAccessStore) apiAccessStore;
+        ApiAccess apiAccess = createApiAccessInDb(UsageKeyType.ORGANIZATION, Optional.empty(), Optional.empty());
+        assertFalse(usageKeyExists(apiAccess));
+
+        // Looking up the usage key does not create it
+        String usageKeyApiKey = apiAccessStore.getUsageKeyApiKey(apiAccess);
+        assertFalse(usageKeyExists(apiAccess));
+
+        // First get-or-create creates the usage key
+        DynamoApiGatewayApiAccessStore.UsageKeyCacheStats statsBefore = dynamoApiAccessStore.getUsageKeyCacheStats();
+        assertEquals(usageKeyApiKey, apiAccessStore.getOrCreateUsageKeyApiKeyForOrganization(apiAccess.getOrganizationName(), UsageKeyType.ORGANIZATION));
+        assertTrue(usageKeyExists(apiAccess));
+        assertEquals(statsBefore.getCreatedCount() + 1, dynamoApiAccessStore.getUsageKeyCacheStats().getCreatedCount());
+
+        // Provisioned usage key is not checked again
+        assertEquals(usageKeyApiKey, apiAccessStore.getOrCreateUsageKeyApiKeyForOrganization(apiAccess.getOrganizationName(), UsageKeyType.ORGANIZATION));
+        assertEquals(statsBefore.getHitCount() + 1, dynamoApiAccessStore.getUsageKeyCacheStats().getHitCount());
+        assertEquals(statsBefore.getCreatedCount() + 1, dynamoApiAccessStore.getUsageKeyCacheStats().getCreatedCount());
+    }
+
     @Test
     public void testCannotCreateExpired() throws Exception {
         Assertions.assertThrows(IllegalArgumentException.class, () ->
@@ -164,6 +186,47 @@ public class ApiAccessStoreTest extends AbstractTest {
         assertEquals(Optional.empty(), apiAccessStore.getApiAccessByApiKey(apiAccess.getApiKey(), true));
     }
 
+    @Test
+    public void testGetByApiKeyCache() throws Exception {
+        DynamoApiGatewayApiAccessStore dynamoApiAccessStore = (DynamoApiGatewayApiAccessStore) apiAccessStore;
+        String organizationName = UUID.randomUUID().toString();
+        ApiAccess apiAccess1 = createApiAccessInDb(organizationName, UsageKeyType.UNLIMITED, Optional.empty(), Optional.empty());
+        ApiAccess apiAccess2 = createApiAccessInDb(organizationName, UsageKeyType.UNLIMITED, Optional.empty(), Optional.empty());
+
+        // Unknown key is only fetched once
+        DynamoApiGatewayApiAccessStore.ApiAccessCacheStats statsBefore = dynamoApiAccessStore.getCacheStats();
+        String nonExistentApiKey = UUID.randomUUID().toString();
+        assertEquals(Optional.empty(), apiAccessStore.getApiAccessByApiKey(nonExistentApiKey, true));
+        assertEquals(Optional.empty(), apiAccessStore.getApiAccessByApiKey(nonExistentApiKey, true));
+        assertEquals(statsBefore.getMissCount() + 1, dynamoApiAccessStore.getCacheStats().getMissCount());
+        assertEquals(statsBefore.getHitCount() + 1, dynamoApiAccessStore.getCacheStats().getHitCount());
+
+        // Other keys of the organization are cached along with the first
+        assertEquals(Optional.of(apiAccess1), apiAccessStore.getApiAccessByApiKey(apiAccess1.getApiKey(), true));
+        dynamoApiAccessStore.prefetchOrganization(organizationName);
+        statsBefore = dynamoApiAccessStore.getCacheStats();
+        assertEquals(Optional.of(apiAccess2), apiAccessStore.getApiAccessByApiKey(apiAccess2.getApiKey(), true));
+        assertEquals(statsBefore.getMissCount(), dynamoApiAccessStore.getCacheStats().getMissCount());
+        assertEquals(statsBefore.getHitCount() + 1, dynamoApiAccessStore.getCacheStats().getHitCount());
+    }
+
+    @Test
+    public void testGetByApiKeyCacheExpiresWithKey() throws Exception {
+        DynamoApiGatewayApiAccessStore dynamoApiAccessStore = (DynamoApiGatewayApiAccessStore) apiAccessStore;
+        ApiAccess apiAccess = createApiAccessInDb(
+                UsageKeyType.UNLIMITED,
+                Optional.empty(),
+                Optional.of(Instant.now().plusSeconds(1)));
+
+        assertEquals(Optional.of(apiAccess), apiAccessStore.getApiAccessByApiKey(apiAccess.getApiKey(), true));
+        long expiredCountBefore = dynamoApiAccessStore.getCacheStats().getExpiredCount();
+        Thread.sleep(2_100);
+
+        // Cached entry expired along with the key
+        assertEquals(Optional.empty(), apiAccessStore.getApiAccessByApiKey(apiAccess.getApiKey(), true));
+        assertEquals(expiredCountBefore + 1, dynamoApiAccessStore.getCacheStats().getExpiredCount());
+    }
+
     @Test
     public void testGetByAccount() throws Exception {
         ApiAccess apiAccess = createApiAccessInDb(
@@ -250,11 +313,19 @@ public class ApiAccessStoreTest extends AbstractTest {
             UsageKeyType usageKeyType,
             Optional<ImmutableSet<String>> queueWhitelistOpt,
             Optional<Instant> expiryOpt) {
+        return createApiAccessInDb(UUID.randomUUID().toString(), usageKeyType, queueWhitelistOpt, expiryOpt);
+    }
+
+    private ApiAccess createApiAccessInDb(
+            String organizationName,
+            UsageKeyType usageKeyType,
+            Optional<ImmutableSet<String>> queueWhitelistOpt,
+            Optional<Instant> expiryOpt) {
 
         // Create access object
         ApiAccess apiAccess = new ApiAccess(
                 keygenUtil.generateSecureApiKey(DynamoApiGatewayApiAccessStore.API_KEY_LENGTH),
-                UUID.randomUUID().toString(),
+                organizationName,
                 "description",
                 ApiAccessStore.OwnerType.USER,
                 UUID.randomUUID() + "user@example.com",
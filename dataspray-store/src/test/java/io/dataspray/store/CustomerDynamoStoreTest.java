@@ -113,6 +113,16 @@ public class CustomerDynamoStoreTest extends AbstractTest {
 
     @Test
     public void test() throws Exception {
+        testWriteRead("test");
+    }
+
+    /** Key parts are JSON encoded and merged with escaping, make sure the mapper matches SingleTable */
+    @Test
+    public void testKeyEscaping() throws Exception {
+        testWriteRead("te:st\\ \"quoted\" <html>");
+    }
+
+    private void testWriteRead(String someString) throws Exception {
         String orgName = idUtil.randomId();
 
         SingleTable singleTable = store.getSingleTable(orgName);
@@ -121,7 +131,7 @@ public class CustomerDynamoStoreTest extends AbstractTest {
         IndexSchema<Data> gsi = singleTable.parseGlobalSecondaryIndexSchema(1, Data.class);
 
         Data dataExpected = new Data(
-                "test",
+                someString,
                 1,
                 gson.toJson(List.of("a", "b")),
                 null,
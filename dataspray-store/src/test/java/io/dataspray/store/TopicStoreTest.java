@@ -25,13 +25,16 @@ package io.dataspray.store;
 import io.dataspray.common.test.AbstractTest;
 import io.dataspray.common.test.aws.MotoInstance;
 import io.dataspray.common.test.aws.MotoLifecycleManager;
+import io.dataspray.singletable.SingleTable;
 import io.dataspray.store.TopicStore.Batch;
 import io.dataspray.store.TopicStore.Topic;
+import io.dataspray.store.impl.DynamoTopicStore;
 import io.quarkus.test.common.QuarkusTestResource;
 import io.quarkus.test.junit.QuarkusTest;
 import jakarta.inject.Inject;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
 
 import java.util.List;
@@ -39,6 +42,8 @@ import java.util.Optional;
 
 import static io.dataspray.store.TopicStore.DEFAULT_ALLOW_UNDEFINED_TOPIC;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.fail;
 
 @Slf4j
@@ -50,6 +55,10 @@ public class TopicStoreTest extends AbstractTest {
 
     @Inject
     TopicStore topicStore;
+    @Inject
+    DynamoDbClient dynamo;
+    @Inject
+    SingleTable singleTable;
 
     @Test
     public void test() throws Exception {
@@ -90,4 +99,36 @@ public class TopicStoreTest extends AbstractTest {
         assertEquals(Optional.of(topic2), topicStore.getTopic("org1", "topic2", true));
         assertEquals(Optional.of(topicDefault), topicStore.getTopic("org1", "topic3", true));
     }
+
+    @Test
+    public void testCacheRefresh() throws Exception {
+        DynamoTopicStore dynamoTopicStore = (DynamoTopicStore) topicStore;
+
+        // Another instance simulates an update from a different container
+        DynamoTopicStore otherTopicStore = new DynamoTopicStore();
+        otherTopicStore.dynamo = dynamo;
+        otherTopicStore.singleTable = singleTable;
+        otherTopicStore.init();
+
+        TopicStore.Topics topics = topicStore.getTopics("org3", true);
+        assertSame(topics, topicStore.getTopics("org3", true));
+
+        // Version unchanged, cached instance kept
+        DynamoTopicStore.TopicsCacheStats statsBefore = dynamoTopicStore.getCacheStats();
+        dynamoTopicStore.refreshCache("org3");
+        assertSame(topics, topicStore.getTopics("org3", true));
+        assertEquals(statsBefore.getRefreshUnchangedCount() + 1, dynamoTopicStore.getCacheStats().getRefreshUnchangedCount());
+        assertEquals(statsBefore.getRefreshChangedCount(), dynamoTopicStore.getCacheStats().getRefreshChangedCount());
+
+        // Version changed, re-fetched
+        Topic topic = Topic.builder()
+                .batch(Batch.builder()
+                        .retention(TopicStore.BatchRetention.DAY).build())
+                .build();
+        otherTopicStore.updateTopic("org3", "topic1", topic, Optional.of(topics.getVersion()));
+        assertFalse(topicStore.getTopics("org3", true).getTopics().containsKey("topic1"));
+        dynamoTopicStore.refreshCache("org3");
+        assertEquals(topic, topicStore.getTopics("org3", true).getTopics().get("topic1"));
+        assertEquals(statsBefore.getRefreshChangedCount() + 1, dynamoTopicStore.getCacheStats().getRefreshChangedCount());
+    }
 }
@@ -45,7 +45,10 @@ import software.amazon.awssdk.services.glue.model.StorageDescriptor;
 import software.amazon.awssdk.services.glue.model.TableInput;
 
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 
 import io.dataspray.store.QueryNotFoundException;
 
@@ -144,8 +147,61 @@ public class AthenaQueryStoreTest extends AbstractTest {
         assertTrue(table.getColumns().stream().anyMatch(c -> c.getName().equals("user_id") && c.getType().equals("string")));
     }
 
+    @Test
+    public void testSubmitQuery_cached() {
+        createTestDatabase(testDatabaseName);
+        String sqlQuery = "SELECT * FROM stream_events WHERE event_type = 'A'";
+
+        String queryExecutionId1 = queryStore.submitQuery(testOrgName, sqlQuery, "user1");
+        String queryExecutionId2 = queryStore.submitQuery(testOrgName, "select *\n  from STREAM_EVENTS\nwhere event_type = 'A';", "user2");
+        String queryExecutionId3 = queryStore.submitQuery(testOrgName, "SELECT * FROM stream_events WHERE event_type = 'a'", "user1");
+
+        // Identical query reuses the execution under an ID of its own, a different literal does not
+        assertNotEquals(queryExecutionId1, queryExecutionId2);
+        QueryHistoryRecord record1 = getQueryHistoryRecord(queryExecutionId1);
+        QueryHistoryRecord record2 = getQueryHistoryRecord(queryExecutionId2);
+        QueryHistoryRecord record3 = getQueryHistoryRecord(queryExecutionId3);
+        assertFalse(record1.getCacheHit());
+        assertNull(record1.getReusedQueryExecutionId());
+        assertTrue(record2.getCacheHit());
+        assertEquals(queryExecutionId1, record2.getReusedQueryExecutionId());
+        assertFalse(record3.getCacheHit());
+        assertNull(record3.getReusedQueryExecutionId());
+
+        // Each submission is reported as its own, attributed to the user who submitted it
+        QueryStore.QueryExecution execution1 = queryStore.getQueryExecution(testOrgName, queryExecutionId1);
+        QueryStore.QueryExecution execution2 = queryStore.getQueryExecution(testOrgName, queryExecutionId2);
+        assertEquals(queryExecutionId1, execution1.getQueryExecutionId());
+        assertEquals("user1", execution1.getUsername());
+        assertEquals(queryExecutionId2, execution2.getQueryExecutionId());
+        assertEquals("user2", execution2.getUsername());
+        assertEquals(Set.of(queryExecutionId1, queryExecutionId2, queryExecutionId3), queryStore.getQueryHistory(testOrgName, 10).stream()
+                .map(QueryStore.QueryExecution::getQueryExecutionId)
+                .collect(Collectors.toSet()));
+
+        // Reused submission is not visible to another organization
+        assertThrows(QueryNotFoundException.class, () -> queryStore.getQueryExecution("other-" + testOrgName, queryExecutionId2));
+    }
+
+    @Test
+    public void testNormalizeSqlQuery() {
+        assertEquals("SELECT * FROM T WHERE A = 'Mixed  Case' AND \"Col\" = 1",
+                AthenaQueryStore.normalizeSqlQuery("  select *\n\tfrom t -- comment\nwhere a = 'Mixed  Case' /* block */ and \"Col\" = 1;  "));
+        assertEquals("SELECT 'it''s -- not a comment'",
+                AthenaQueryStore.normalizeSqlQuery("select 'it''s -- not a comment'"));
+    }
+
     // Helper methods
 
+    private QueryHistoryRecord getQueryHistoryRecord(String queryExecutionId) {
+        List<QueryHistoryRecord> records = singleTable.parseGlobalSecondaryIndexSchema(1, QueryHistoryRecord.class).query()
+                .keyConditionsEqualsPrimaryKey(Map.of("queryExecutionId", queryExecutionId))
+                .executeStream(dynamoClient)
+                .toList();
+        assertEquals(1, records.size());
+        return records.get(0);
+    }
+
     private void createTestDatabase(String databaseName) {
         try {
             glueClient.createDatabase(CreateDatabaseRequest.builder()
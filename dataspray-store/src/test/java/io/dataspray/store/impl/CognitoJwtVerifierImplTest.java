@@ -0,0 +1,201 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store.impl;
+
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.algorithms.Algorithm;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+import io.dataspray.store.CognitoJwtVerifier.VerifiedCognitoJwt;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CognitoJwtVerifierImplTest {
+
+    private HttpServer jwksServer;
+    private URL jwksUrl;
+    private final AtomicInteger jwksFetchCount = new AtomicInteger();
+    private final List<Map.Entry<String, KeyPair>> servedKeys = new CopyOnWriteArrayList<>();
+    private CognitoJwtVerifierImpl verifier;
+
+    @BeforeEach
+    public void beforeEach() throws Exception {
+        jwksServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        jwksServer.createContext("/.well-known/jwks.json", exchange -> {
+            jwksFetchCount.incrementAndGet();
+            byte[] body = getJwks().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        jwksServer.start();
+        jwksUrl = URI.create("http://localhost:" + jwksServer.getAddress().getPort() + "/.well-known/jwks.json").toURL();
+
+        verifier = new CognitoJwtVerifierImpl();
+        verifier.jwksUrlOpt = Optional.of(jwksUrl.toString());
+        verifier.jwksFetchBeforeCheckpoint = false;
+    }
+
+    @AfterEach
+    public void afterEach() {
+        jwksServer.stop(0);
+    }
+
+    @Test
+    public void testVerify() throws Exception {
+        KeyPair keyPair = serveNewKey("key1");
+        String token = sign("key1", keyPair, "user1", Instant.now().plusSeconds(600));
+
+        assertEquals(Optional.of(new VerifiedCognitoJwt("user1", ImmutableSet.of("org1", "org2"))), verifier.verify(token));
+        assertEquals(0, verifier.getVerifiedTokenCacheStats().hitCount());
+
+        // Repeated token is not verified again, other tokens are verified with the same fetched keys
+        assertEquals(Optional.of(new VerifiedCognitoJwt("user1", ImmutableSet.of("org1", "org2"))), verifier.verify(token));
+        assertEquals(1, verifier.getVerifiedTokenCacheStats().hitCount());
+        assertTrue(verifier.verify(sign("key1", keyPair, "user2", Instant.now().plusSeconds(600))).isPresent());
+        assertEquals(1, jwksFetchCount.get());
+    }
+
+    @Test
+    public void testVerifyRejected() throws Exception {
+        KeyPair keyPair = serveNewKey("key1");
+        KeyPair otherKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+        // Expired
+        String expiredToken = sign("key1", keyPair, "user1", Instant.now().minusSeconds(600));
+        assertEquals(Optional.empty(), verifier.verify(expiredToken));
+        assertEquals(Optional.empty(), verifier.verify(expiredToken));
+
+        // Signed with a different key under a known key id
+        assertEquals(Optional.empty(), verifier.verify(sign("key1", otherKeyPair, "user1", Instant.now().plusSeconds(600))));
+
+        // Unknown key id fetches keys again, but only once within the refetch interval
+        assertEquals(1, jwksFetchCount.get());
+        assertEquals(Optional.empty(), verifier.verify(sign("unknownKey", otherKeyPair, "user1", Instant.now().plusSeconds(600))));
+        assertEquals(2, jwksFetchCount.get());
+        assertEquals(Optional.empty(), verifier.verify(sign("otherUnknownKey", otherKeyPair, "user1", Instant.now().plusSeconds(600))));
+        assertEquals(2, jwksFetchCount.get());
+    }
+
+    @Test
+    public void testKeyStoreRotation() throws Exception {
+        serveNewKey("key1");
+        JwksKeyStore keyStore = new JwksKeyStore(jwksUrl, Duration.ofHours(1), Duration.ZERO);
+        assertNotNull(keyStore.getKey("key1"));
+        assertThrows(SigningKeyNotFoundException.class, () -> keyStore.getKey("key2"));
+        assertEquals(2, jwksFetchCount.get());
+
+        // Rotated key is fetched on first use
+        serveNewKey("key2");
+        assertNotNull(keyStore.getKey("key2"));
+        assertNotNull(keyStore.getKey("key1"));
+        assertEquals(3, jwksFetchCount.get());
+    }
+
+    @Test
+    public void testKeyStoreRefreshAhead() throws Exception {
+        serveNewKey("key1");
+        JwksKeyStore keyStore = new JwksKeyStore(jwksUrl, Duration.ofHours(1), Duration.ofHours(1));
+        RSAPublicKey key = keyStore.getKey("key1");
+        assertSame(key, keyStore.getKey("key1"));
+        assertEquals(1, jwksFetchCount.get());
+
+        // Stale keys are served while refreshed in the background
+        keyStore.markStale();
+        assertSame(key, keyStore.getKey("key1"));
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (jwksFetchCount.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, jwksFetchCount.get());
+    }
+
+    private KeyPair serveNewKey(String kid) throws Exception {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+        keyPairGenerator.initialize(2048);
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        servedKeys.add(Map.entry(kid, keyPair));
+        return keyPair;
+    }
+
+    private String getJwks() {
+        JsonArray keys = new JsonArray();
+        for (Map.Entry<String, KeyPair> servedKey : servedKeys) {
+            RSAPublicKey publicKey = (RSAPublicKey) servedKey.getValue().getPublic();
+            JsonObject key = new JsonObject();
+            key.addProperty("kid", servedKey.getKey());
+            key.addProperty("kty", "RSA");
+            key.addProperty("alg", "RS256");
+            key.addProperty("use", "sig");
+            key.addProperty("n", toBase64Url(publicKey.getModulus()));
+            key.addProperty("e", toBase64Url(publicKey.getPublicExponent()));
+            keys.add(key);
+        }
+        JsonObject jwks = new JsonObject();
+        jwks.add("keys", keys);
+        return jwks.toString();
+    }
+
+    private String toBase64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private String sign(String kid, KeyPair keyPair, String username, Instant expiresAt) {
+        return JWT.create()
+                .withKeyId(kid)
+                .withClaim("username", username)
+                .withClaim("cognito:groups", List.of("org1", "org2"))
+                .withExpiresAt(expiresAt)
+                .sign(Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate()));
+    }
+}
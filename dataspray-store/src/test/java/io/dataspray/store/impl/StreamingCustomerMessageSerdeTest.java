@@ -0,0 +1,109 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.store.impl;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonSyntaxException;
+import io.dataspray.common.json.GsonUtil;
+import io.dataspray.store.TopicStore.BatchRetention;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Map;
+import java.util.Optional;
+
+import static io.dataspray.store.impl.FirehoseS3AthenaBatchStore.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingCustomerMessageSerdeTest {
+
+    private GsonCustomerMessageSerde gsonSerde;
+    private StreamingCustomerMessageSerde streamingSerde;
+
+    @BeforeEach
+    public void beforeEach() {
+        gsonSerde = new GsonCustomerMessageSerde();
+        gsonSerde.gson = GsonUtil.get();
+        streamingSerde = new StreamingCustomerMessageSerde();
+        streamingSerde.gson = GsonUtil.get();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "{}",
+            "{\"a\":\"b\"}",
+            "{\"str\":\"<html> & \\\"quotes\\\" \\u00e9\",\"long\":12,\"double\":1.5,\"bool\":true,\"null\":null}",
+            "{\"obj\":{\"nested\":{\"arr\":[1,\"two\",null,{\"three\":3}]}},\"empty\":{},\"emptyArr\":[]}",
+            "{\"" + ETL_MESSAGE_KEY + "\":\"overridden\",\"" + ETL_PARTITION_KEY_TOPIC + "\":\"overridden\"}",
+    })
+    public void testEquivalentToGson(String messageStr) {
+        Map<String, Object> expected = GsonUtil.get().fromJson(new String(gsonSerde.enrichJsonToBytes(
+                "org", "topic", Optional.of(BatchRetention.DAY), Optional.of("id"), "key", messageStr), Charsets.UTF_8), Map.class);
+        Map<String, Object> actual = GsonUtil.get().fromJson(new String(streamingSerde.enrichJsonToBytes(
+                "org", "topic", Optional.of(BatchRetention.DAY), Optional.of("id"), "key", messageStr), Charsets.UTF_8), Map.class);
+
+        // Timestamps are taken separately
+        assertNotNull(actual.remove(ETL_MESSAGE_TS));
+        assertNotNull(expected.remove(ETL_MESSAGE_TS));
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testEnrichmentLast() {
+        String actual = new String(streamingSerde.enrichJsonToBytes(
+                "org", "topic", Optional.empty(), Optional.empty(), "key", "{\"a\":1.50}"), Charsets.UTF_8);
+
+        assertTrue(actual.startsWith("{\"a\":1.50,\"" + ETL_MESSAGE_TS + "\":"), actual);
+        assertTrue(actual.endsWith(",\"" + ETL_MESSAGE_KEY + "\":\"key\""
+                                   + ",\"" + ETL_PARTITION_KEY_ORGANIZATION + "\":\"org\""
+                                   + ",\"" + ETL_PARTITION_KEY_TOPIC + "\":\"topic\"}"), actual);
+    }
+
+    @Test
+    public void testBytesPartOfArray() {
+        byte[] messageBytes = "xx{\"a\":\"\u00e9\",\"b\":[1]}yy".getBytes(Charsets.UTF_8);
+        String expected = new String(streamingSerde.enrichJsonToBytes(
+                "org", "topic", Optional.empty(), Optional.of("id"), "key", "{\"a\":\"\u00e9\",\"b\":[1]}"), Charsets.UTF_8);
+        String actual = new String(streamingSerde.enrichJsonToBytes(
+                "org", "topic", Optional.empty(), Optional.of("id"), "key", messageBytes, 2, messageBytes.length - 4), Charsets.UTF_8);
+
+        // Timestamps are taken separately
+        assertEquals(expected.replaceAll("\"" + ETL_MESSAGE_TS + "\":\\d+", ""),
+                actual.replaceAll("\"" + ETL_MESSAGE_TS + "\":\\d+", ""));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "",
+            "[]",
+            "\"str\"",
+            "{\"a\":",
+            "{\"a\":1}{}",
+    })
+    public void testInvalid(String messageStr) {
+        assertThrows(JsonSyntaxException.class, () -> streamingSerde.enrichJsonToBytes(
+                "org", "topic", Optional.empty(), Optional.empty(), "key", messageStr));
+    }
+}
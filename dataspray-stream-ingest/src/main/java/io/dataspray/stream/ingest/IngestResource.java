@@ -24,16 +24,28 @@ package io.dataspray.stream.ingest;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Strings;
+import com.google.common.base.Utf8;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Streams;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
 import io.dataspray.store.BatchStore;
+import io.dataspray.store.ClaimCheckStore;
+import io.dataspray.store.ClaimCheckStore.ClaimCheck;
 import io.dataspray.store.CustomerDynamoStore;
 import io.dataspray.store.CustomerLogger;
 import io.dataspray.store.CustomerMessageSerde;
 import io.dataspray.store.StreamStore;
+import io.dataspray.store.StreamStore.StreamMessage;
 import io.dataspray.store.TopicStore;
 import io.dataspray.store.TopicStore.Stream;
 import io.dataspray.store.TopicStore.Topic;
+import io.dataspray.store.util.BatchFailure;
+import io.dataspray.store.util.FutureUtil;
+import io.dataspray.stream.ingest.MessageBufferPool.PooledBuffer;
+import io.dataspray.stream.ingest.model.MessageBatchEntry;
+import io.dataspray.stream.ingest.model.MessageBatchFailure;
+import io.dataspray.stream.ingest.model.MessageBatchRequest;
+import io.dataspray.stream.ingest.model.MessageBatchResponse;
 import io.dataspray.web.resource.AbstractResource;
 import jakarta.annotation.Nullable;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -44,14 +56,18 @@ import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
 import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Executors;
 
+import static io.dataspray.store.impl.CustomerDynamoStoreImpl.ITEM_MAX_BYTES;
+import static io.dataspray.store.impl.FirehoseS3AthenaBatchStore.PUT_RECORD_MAX_BYTES;
+import static io.dataspray.store.impl.SqsStreamStore.BINARY_DATA_OVERHEAD_BYTES;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON;
 import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 
@@ -60,6 +76,25 @@ import static jakarta.ws.rs.core.MediaType.APPLICATION_JSON_TYPE;
 public class IngestResource extends AbstractResource implements IngestApi {
     /** Limited by SQS max message size */
     public static final int MESSAGE_MAX_BYTES = 256 * 1024;
+    /** Limited by Lambda max request payload size, applies only to topics with streams when claim-check is enabled */
+    public static final int CLAIM_CHECK_MESSAGE_MAX_BYTES = 6 * 1024 * 1024;
+    /** Limits the amount of work for a single batch request, well within the Lambda payload limit */
+    public static final int MESSAGES_MAX_COUNT = 500;
+
+    /**
+     * Send binary messages to streams as a binary message attribute instead of a Base64 encoded body. Requires all
+     * stream consumers to use a runner that supports it, Java runner 0.0.24 or TypeScript runner 0.0.10 onwards.
+     */
+    @ConfigProperty(name = "ingest.stream.binaryTransport.enable", defaultValue = "false")
+    boolean binaryTransportEnabled;
+    /**
+     * Store messages too large for a stream in a claim-check store and send streams only a reference to it. Requires
+     * all stream consumers to use a runner that supports it, Java runner 0.0.24 or TypeScript runner 0.0.10 onwards.
+     */
+    @ConfigProperty(name = "ingest.stream.claimCheck.enable", defaultValue = "false")
+    boolean claimCheckEnabled;
+    @ConfigProperty(name = "ingest.stream.claimCheck.thresholdBytes", defaultValue = "" + MESSAGE_MAX_BYTES)
+    int claimCheckThresholdBytes;
 
     @Inject
     TopicStore topicStore;
@@ -68,11 +103,17 @@ public class IngestResource extends AbstractResource implements IngestApi {
     @Inject
     BatchStore batchStore;
     @Inject
+    ClaimCheckStore claimCheckStore;
+    @Inject
     CustomerDynamoStore customerDynamoStore;
     @Inject
     CustomerLogger customerLog;
     @Inject
     CustomerMessageSerde customerMessageSerde;
+    @Inject
+    MessageBufferPool messageBufferPool;
+    @Inject
+    Gson gson;
 
     private final ObjectMapper jsonSerde = new ObjectMapper();
 
@@ -94,12 +135,7 @@ public class IngestResource extends AbstractResource implements IngestApi {
         getUsername().orElseThrow(ForbiddenException::new);
 
         // Fetch target definition
-        Topic topic = topicStore.getTopic(organizationName, topicName, true)
-                // If target is not found and default targets are disabled, throw not found
-                .orElseThrow(() -> {
-                    customerLog.warn("Dropping message for undefined stream " + topicName, organizationName);
-                    return new ClientErrorException(Response.Status.NOT_FOUND);
-                });
+        Topic topic = getTopic(organizationName, topicName);
 
         // Detect media type, needed for both stream and batch processing
         MediaType contentType = Optional.ofNullable(headers.getMediaType())
@@ -115,70 +151,233 @@ public class IngestResource extends AbstractResource implements IngestApi {
             throw new ClientErrorException(Response.Status.UNSUPPORTED_MEDIA_TYPE);
         }
 
-        // Read message
-        byte[] messageBytes = messageInputStream.readNBytes(MESSAGE_MAX_BYTES);
-        if (messageInputStream.readNBytes(1).length > 0) {
-            customerLog.warn("Dropping message for stream " + topicName + " that is too large (max " + MESSAGE_MAX_BYTES + " bytes)", organizationName);
+        // Binary messages can be passed through as is, otherwise they are Base64 encoded as a string
+        boolean sendBinary = binaryTransportEnabled && customerMessageSerde.isBinary(contentType);
+
+        // Binary messages are carried in a message attribute next to a placeholder body, both count towards SQS limit
+        int streamMessageMaxBytes = sendBinary
+                ? MESSAGE_MAX_BYTES - BINARY_DATA_OVERHEAD_BYTES
+                : MESSAGE_MAX_BYTES;
+
+        // Read message into a pooled buffer, only copied out for destinations that need the raw bytes
+        int messageMaxBytes = claimCheckEnabled && !topic.getStreams().isEmpty()
+                ? CLAIM_CHECK_MESSAGE_MAX_BYTES
+                : MESSAGE_MAX_BYTES;
+        Optional<ClaimCheck> claimCheckOpt = Optional.empty();
+        byte[] messageBytes = null;
+        String messageStr = null;
+        byte[] messageEnrichedBytes = null;
+        try (PooledBuffer messageBuffer = messageBufferPool.readBounded(messageInputStream, headers.getLength(), messageMaxBytes)
+                .orElseThrow(() -> {
+                    customerLog.warn("Dropping message for stream " + topicName + " that is too large (max " + messageMaxBytes + " bytes)", organizationName);
+                    return new ClientErrorException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+                })) {
+            messageInputStream.close();
+            if (topic.getBatch().isPresent() && messageBuffer.length() > PUT_RECORD_MAX_BYTES) {
+                customerLog.warn("Dropping message for stream " + topicName + " that is too large for batch processing (max " + PUT_RECORD_MAX_BYTES + " bytes)", organizationName);
+                throw new ClientErrorException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+            }
+            if (topic.getStore().isPresent() && messageBuffer.length() > ITEM_MAX_BYTES) {
+                customerLog.warn("Dropping message for stream " + topicName + " that is too large for store (max " + ITEM_MAX_BYTES + " bytes)", organizationName);
+                throw new ClientErrorException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+            }
+
+            // Messages too large for a stream are stored once and each stream is only sent a reference to it
+            if (claimCheckEnabled
+                && !topic.getStreams().isEmpty()
+                && messageBuffer.length() > Math.min(claimCheckThresholdBytes, streamMessageMaxBytes)) {
+                claimCheckOpt = Optional.of(claimCheckStore.put(organizationName, topicName, messageBuffer.toByteArray(), contentType));
+            } else if (!topic.getStreams().isEmpty() && messageBuffer.length() > streamMessageMaxBytes) {
+                customerLog.warn("Dropping message for stream " + topicName + " that is too large (max " + streamMessageMaxBytes + " bytes)", organizationName);
+                throw new ClientErrorException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
+            }
+
+            // Enrich for batch processing in a single pass straight from the buffer
+            if (topic.getBatch().isPresent()) {
+                messageEnrichedBytes = customerMessageSerde.enrichJsonToBytes(
+                        organizationName,
+                        topicName,
+                        topic.getBatch().map(TopicStore.Batch::getRetention),
+                        messageIdOpt,
+                        messageKey,
+                        messageBuffer.array(),
+                        0,
+                        messageBuffer.length());
+            }
+
+            if (!sendBinary) {
+                // Only decoded into a string for destinations that need it
+                if ((claimCheckOpt.isEmpty() && !topic.getStreams().isEmpty())
+                    || topic.getStore().isPresent()) {
+                    messageStr = customerMessageSerde.bytesToString(messageBuffer.array(), 0, messageBuffer.length(), contentType);
+                }
+            } else if (claimCheckOpt.isEmpty()) {
+                messageBytes = messageBuffer.toByteArray();
+            }
+        }
+
+        // Start processing, all destinations are sent to concurrently without a thread per destination
+        List<CompletableFuture<?>> futureSends = Lists.newArrayList();
+
+        // Submit message to all streams
+        for (Stream stream : topic.getStreams()) {
+            if (claimCheckOpt.isPresent()) {
+                futureSends.add(streamStore.submitClaimCheckAsync(organizationName, stream.getName(), messageIdOpt, messageKey, claimCheckOpt.get()));
+            } else if (sendBinary) {
+                futureSends.add(streamStore.submitBinaryAsync(organizationName, stream.getName(), messageIdOpt, messageKey, messageBytes));
+            } else {
+                futureSends.add(streamStore.submitAsync(organizationName, stream.getName(), messageIdOpt, messageKey, messageStr));
+            }
+        }
+
+        // Submit message for batch processing
+        if (topic.getBatch().isPresent()) {
+            futureSends.add(batchStore.putRecordAsync(messageEnrichedBytes));
+        }
+
+        // Submit message to dynamo store, parsed as JSON to pull out the key attributes
+        if (topic.getStore().isPresent()) {
+            Map<String, Object> messageEnrichedJson = customerMessageSerde.enrichJson(
+                    organizationName,
+                    topicName,
+                    topic.getBatch().map(TopicStore.Batch::getRetention),
+                    messageIdOpt,
+                    messageKey,
+                    customerMessageSerde.stringToJson(messageStr));
+            futureSends.add(customerDynamoStore.writeAsync(organizationName, topic.getStore().get(), messageEnrichedJson));
+        }
+
+        // Wait for all to complete
+        FutureUtil.join(CompletableFuture.allOf(futureSends.toArray(CompletableFuture[]::new)));
+    }
+
+    /**
+     * <b>Ingest a batch of messages.</b>
+     * <p>Same as {@link #message} for multiple JSON messages at once, each destination is written to using batch
+     * requests. Failures are reported per message; a message not reported as failed was ingested into all
+     * destinations.</p>
+     */
+    @Override
+    public MessageBatchResponse messages(String organizationName, String topicName, MessageBatchRequest messageBatchRequest) {
+        List<MessageBatchEntry> entries = messageBatchRequest.getMessages();
+        if (entries.size() > MESSAGES_MAX_COUNT) {
+            customerLog.warn("Dropping batch for stream " + topicName + " with too many messages (max " + MESSAGES_MAX_COUNT + ")", organizationName);
             throw new ClientErrorException(Response.Status.REQUEST_ENTITY_TOO_LARGE);
         }
-        messageInputStream.close();
-        String messageStr = customerMessageSerde.bytesToString(messageBytes, contentType);
+
+        // Sanity check to see if we are authorized
+        getUsername().orElseThrow(ForbiddenException::new);
+
+        // Fetch target definition
+        Topic topic = getTopic(organizationName, topicName);
+
+        // Failures keyed by position in request, shared across all destinations
+        SortedMap<Integer, String> failures = Maps.newTreeMap();
+
+        // Validate and serialize each message, skipping any invalid ones
+        List<Integer> validIndices = Lists.newArrayList();
+        List<StreamMessage> streamMessages = Lists.newArrayList();
+        for (int index = 0; index < entries.size(); index++) {
+            MessageBatchEntry entry = entries.get(index);
+            if (Strings.isNullOrEmpty(entry.getMessageKey())) {
+                failures.put(index, "Missing messageKey");
+                continue;
+            }
+            if (!(entry.getMessage() instanceof Map)) {
+                failures.put(index, "Message must be a JSON object");
+                continue;
+            }
+            String messageStr = gson.toJson(entry.getMessage());
+            if (Utf8.encodedLength(messageStr) > MESSAGE_MAX_BYTES) {
+                failures.put(index, "Message too large (max " + MESSAGE_MAX_BYTES + " bytes)");
+                continue;
+            }
+            validIndices.add(index);
+            streamMessages.add(new StreamMessage(
+                    Optional.ofNullable(entry.getMessageId()),
+                    entry.getMessageKey(),
+                    messageStr));
+        }
 
         // Start processing
-        List<CompletableFuture<String>> futureStreamMessageSend = Lists.newArrayList();
-        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
-            if (!topic.getStreams().isEmpty()) {
-
-                // Submit message to all streams
-                for (Stream stream : topic.getStreams()) {
-                    futureStreamMessageSend.add(CompletableFuture.supplyAsync(() ->
-                            streamStore.submit(organizationName, stream.getName(), messageIdOpt, messageKey, messageStr), executor));
-                }
+        List<CompletableFuture<Void>> futures = Lists.newArrayList();
+
+        // Submit messages to all streams
+        for (Stream stream : topic.getStreams()) {
+            futures.add(recordBatchFailures(failures, validIndices,
+                    streamStore.submitBatchAsync(organizationName, stream.getName(), streamMessages)));
+        }
+
+        // Submit messages for batch processing, each enriched in a single pass straight to bytes
+        if (topic.getBatch().isPresent()) {
+            futures.add(recordBatchFailures(failures, validIndices,
+                    batchStore.putRecordBatchAsync(streamMessages.stream()
+                            .map(streamMessage -> customerMessageSerde.enrichJsonToBytes(
+                                    organizationName,
+                                    topicName,
+                                    topic.getBatch().map(TopicStore.Batch::getRetention),
+                                    streamMessage.getMessageIdOpt(),
+                                    streamMessage.getMessageKey(),
+                                    streamMessage.getMessageStr()))
+                            .toList())));
+        }
+
+        // Submit messages to dynamo store, parsed as JSON to pull out the key attributes
+        if (topic.getStore().isPresent()) {
+            List<Map<String, Object>> messagesEnrichedJson = Lists.newArrayListWithCapacity(validIndices.size());
+            for (StreamMessage streamMessage : streamMessages) {
+                messagesEnrichedJson.add(customerMessageSerde.enrichJson(
+                        organizationName,
+                        topicName,
+                        topic.getBatch().map(TopicStore.Batch::getRetention),
+                        streamMessage.getMessageIdOpt(),
+                        streamMessage.getMessageKey(),
+                        customerMessageSerde.stringToJson(streamMessage.getMessageStr())));
             }
+            futures.add(recordBatchFailures(failures, validIndices,
+                    customerDynamoStore.writeBatchAsync(organizationName, topic.getStore().get(), messagesEnrichedJson)));
+        }
 
-            Optional<CompletableFuture<String>> taskBatchSendOpt = Optional.empty();
-            Optional<CompletableFuture<Void>> taskStoreSendOpt = Optional.empty();
-            if ((topic.getBatch().isPresent() || topic.getStore().isPresent())) {
-
-                // Parse message as JSON
-                CompletableFuture<Map<String, Object>> taskMessageAsJson = CompletableFuture.supplyAsync(() ->
-                        customerMessageSerde.stringToJson(messageStr));
-
-                // Enrich with metadata
-                CompletableFuture<Map<String, Object>> taskMessageAsEnrichedJson = taskMessageAsJson.thenApplyAsync(messageJson ->
-                        customerMessageSerde.enrichJson(
-                                organizationName,
-                                topicName,
-                                topic.getBatch().map(TopicStore.Batch::getRetention),
-                                messageIdOpt,
-                                messageKey,
-                                messageJson));
-
-                // Submit message for batch processing
-                if (topic.getBatch().isPresent()) {
-
-                    // Prepare as bytes
-                    CompletableFuture<byte[]> taskMessageAsEnrichedBytes = taskMessageAsEnrichedJson.thenApplyAsync(messageJson ->
-                            customerMessageSerde.jsonToBytes(messageJson));
-
-                    // Send to Firehose
-                    taskBatchSendOpt = Optional.of(taskMessageAsEnrichedBytes.thenApplyAsync(messageEnrichedBytes ->
-                            batchStore.putRecord(messageEnrichedBytes)));
-                }
+        // Wait for all to complete
+        FutureUtil.join(CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)));
+
+        return new MessageBatchResponse(failures.entrySet().stream()
+                .map(failure -> MessageBatchFailure.builder()
+                        .index(failure.getKey())
+                        .messageId(entries.get(failure.getKey()).getMessageId())
+                        .error(failure.getValue())
+                        .build())
+                .toList());
+    }
 
-                // Submit message to dynamo store
-                if (topic.getStore().isPresent()) {
-                    taskStoreSendOpt = Optional.of(taskMessageAsEnrichedJson.thenApplyAsync(messageEnrichedJson ->
-                            customerDynamoStore.write(organizationName, topic.getStore().get(), messageEnrichedJson)));
+    /**
+     * Records failures of a batch operation on a destination mapped back to their position in the request once it
+     * completes. If the whole operation fails, all messages are considered failed.
+     *
+     * @return Future that always completes normally
+     */
+    private CompletableFuture<Void> recordBatchFailures(SortedMap<Integer, String> failures, List<Integer> validIndices, CompletableFuture<? extends List<BatchFailure>> batchOperation) {
+        return batchOperation.handle((batchFailures, th) -> {
+            synchronized (failures) {
+                if (th != null) {
+                    log.warn("Batch operation failed for all {} messages", validIndices.size(), th);
+                    validIndices.forEach(index -> failures.putIfAbsent(index, "Internal failure"));
+                } else {
+                    batchFailures.forEach(batchFailure -> failures.putIfAbsent(
+                            validIndices.get(batchFailure.getIndex()),
+                            batchFailure.getReason()));
                 }
             }
+            return null;
+        });
+    }
 
-            // Wait for all to complete
-            CompletableFuture.allOf(Streams.concat(
-                    futureStreamMessageSend.stream(),
-                    taskBatchSendOpt.stream(),
-                    taskStoreSendOpt.stream()
-            ).toArray(CompletableFuture[]::new)).join();
-        }
+    private Topic getTopic(String organizationName, String topicName) {
+        return topicStore.getTopic(organizationName, topicName, true)
+                // If target is not found and default targets are disabled, throw not found
+                .orElseThrow(() -> {
+                    customerLog.warn("Dropping message for undefined stream " + topicName, organizationName);
+                    return new ClientErrorException(Response.Status.NOT_FOUND);
+                });
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.stream.ingest;
+
+import com.google.common.annotations.VisibleForTesting;
+import jakarta.enterprise.context.ApplicationScoped;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reusable buffers for reading message bodies without allocating a new array per request.
+ * <p>
+ * Buffers come in power of two size classes from {@link #SIZE_CLASS_MIN_BYTES} up to {@link #POOLED_MAX_BYTES}.
+ * Larger bodies, only possible with claim-check enabled, are read into arrays that are not pooled.
+ */
+@Slf4j
+@ApplicationScoped
+public class MessageBufferPool {
+    @VisibleForTesting
+    static final int SIZE_CLASS_MIN_BYTES = 4 * 1024;
+    @VisibleForTesting
+    static final int POOLED_MAX_BYTES = IngestResource.MESSAGE_MAX_BYTES;
+    /** Idle buffers kept per size class, any more are left for garbage collection */
+    private static final int MAX_BUFFERS_PER_SIZE_CLASS = 16;
+    private static final int UNPOOLED = -1;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayBlockingQueue<byte[]>[] sizeClasses = new ArrayBlockingQueue[sizeClassOf(POOLED_MAX_BYTES) + 1];
+
+    public MessageBufferPool() {
+        for (int sizeClass = 0; sizeClass < sizeClasses.length; sizeClass++) {
+            sizeClasses[sizeClass] = new ArrayBlockingQueue<>(MAX_BUFFERS_PER_SIZE_CLASS);
+        }
+    }
+
+    /**
+     * Reads the whole input stream into a buffer. Must be closed once the buffer is no longer used.
+     *
+     * @param contentLength Expected length if known upfront, otherwise negative
+     * @return Empty if the content is larger than max bytes; checked upfront against the expected length if known
+     */
+    public Optional<PooledBuffer> readBounded(InputStream inputStream, long contentLength, int maxBytes) throws IOException {
+        if (contentLength > maxBytes) {
+            return Optional.empty();
+        }
+
+        PooledBuffer buffer = acquire(contentLength >= 0 ? (int) contentLength : SIZE_CLASS_MIN_BYTES);
+        try {
+            while (true) {
+                if (buffer.length == buffer.array.length) {
+                    // Buffer is full, check whether there is anything left without allocating
+                    int nextByte = inputStream.read();
+                    if (nextByte == -1) {
+                        break;
+                    }
+                    if (buffer.length >= maxBytes) {
+                        buffer.close();
+                        return Optional.empty();
+                    }
+                    buffer = grow(buffer, maxBytes);
+                    buffer.array[buffer.length++] = (byte) nextByte;
+                    continue;
+                }
+                int read = inputStream.read(buffer.array, buffer.length, buffer.array.length - buffer.length);
+                if (read == -1) {
+                    break;
+                }
+                buffer.length += read;
+            }
+        } catch (IOException | RuntimeException ex) {
+            buffer.close();
+            throw ex;
+        }
+
+        // Size class may be larger than max bytes
+        if (buffer.length > maxBytes) {
+            buffer.close();
+            return Optional.empty();
+        }
+
+        return Optional.of(buffer);
+    }
+
+    private PooledBuffer grow(PooledBuffer buffer, int maxBytes) {
+        PooledBuffer grownBuffer = acquire(Math.min(buffer.array.length * 2, maxBytes));
+        System.arraycopy(buffer.array, 0, grownBuffer.array, 0, buffer.length);
+        grownBuffer.length = buffer.length;
+        buffer.close();
+        return grownBuffer;
+    }
+
+    private PooledBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClassOf(minCapacity);
+        if (sizeClass >= sizeClasses.length) {
+            return new PooledBuffer(new byte[minCapacity], UNPOOLED);
+        }
+        byte[] array = sizeClasses[sizeClass].poll();
+        if (array == null) {
+            array = new byte[SIZE_CLASS_MIN_BYTES << sizeClass];
+        }
+        return new PooledBuffer(array, sizeClass);
+    }
+
+    private void release(byte[] array, int sizeClass) {
+        if (sizeClass != UNPOOLED) {
+            // Drop the buffer if the pool is already full
+            sizeClasses[sizeClass].offer(array);
+        }
+    }
+
+    @VisibleForTesting
+    int idleBufferCount() {
+        return Arrays.stream(sizeClasses).mapToInt(ArrayBlockingQueue::size).sum();
+    }
+
+    private static int sizeClassOf(int capacity) {
+        if (capacity <= SIZE_CLASS_MIN_BYTES) {
+            return 0;
+        }
+        // Ceiling of log2 relative to the smallest size class
+        return Integer.numberOfLeadingZeros(SIZE_CLASS_MIN_BYTES - 1) - Integer.numberOfLeadingZeros(capacity - 1);
+    }
+
+    /**
+     * Message read into a possibly larger array, only the first {@link #length()} bytes are valid.
+     */
+    public class PooledBuffer implements AutoCloseable {
+        private final byte[] array;
+        private final int sizeClass;
+        private int length = 0;
+        private boolean released = false;
+
+        private PooledBuffer(byte[] array, int sizeClass) {
+            this.array = array;
+            this.sizeClass = sizeClass;
+        }
+
+        /**
+         * Backing array which must be treated as read-only and must not be retained after the buffer is closed.
+         */
+        public byte[] array() {
+            return array;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        /**
+         * Copy of the message safe to retain after the buffer is closed. Not copied if the array is exactly sized and
+         * not pooled.
+         */
+        public byte[] toByteArray() {
+            return sizeClass == UNPOOLED && length == array.length
+                    ? array
+                    : Arrays.copyOf(array, length);
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(array, sizeClass);
+            }
+        }
+    }
+}
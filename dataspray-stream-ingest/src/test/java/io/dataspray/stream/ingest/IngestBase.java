@@ -40,7 +40,10 @@ import io.dataspray.store.TopicStore.Topic;
 import io.dataspray.store.impl.DynamoTopicStore;
 import io.dataspray.store.impl.FirehoseS3AthenaBatchStore;
 import io.dataspray.store.impl.LambdaDeployerImpl;
+import io.dataspray.store.impl.S3ClaimCheckStore;
 import io.dataspray.store.impl.SqsStreamStore;
+import io.dataspray.stream.ingest.model.MessageBatchFailure;
+import io.dataspray.stream.ingest.model.MessageBatchResponse;
 import io.quarkus.test.common.QuarkusTestResource;
 import jakarta.ws.rs.HttpMethod;
 import jakarta.ws.rs.core.Response;
@@ -66,6 +69,7 @@ import software.amazon.awssdk.services.sqs.SqsClient;
 import software.amazon.awssdk.services.sqs.model.Message;
 import software.amazon.awssdk.services.sqs.model.ReceiveMessageRequest;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.util.List;
 import java.util.Map;
@@ -237,4 +241,176 @@ public abstract class IngestBase extends AbstractLambdaTest {
                 .put(ETL_PARTITION_KEY_TOPIC, topicName)
                 .build(), objectJson);
     }
+
+    @Test
+    public void testBatch() throws Exception {
+        String topicName = "registration-batch";
+
+        // Setup Target store
+        SingleTable singleTable = SingleTable.builder()
+                .tablePrefix(SingleTableProvider.TABLE_PREFIX_DEFAULT)
+                .overrideGson(GsonUtil.get())
+                .build();
+        DynamoTopicStore dynamoTargetStore = new DynamoTopicStore();
+        dynamoTargetStore.dynamo = getDynamoClient();
+        dynamoTargetStore.singleTable = singleTable;
+        dynamoTargetStore.init();
+
+        // Setup topic to perform stream processing only
+        TopicStore.Topics topics = dynamoTargetStore.getTopics(getOrganizationName(), false);
+        dynamoTargetStore.updateTopic(getOrganizationName(), topicName, Topic.builder()
+                        .streams(ImmutableList.of(
+                                Stream.builder()
+                                        .name(topicName)
+                                        .build()))
+                        .build(),
+                Optional.of(topics.getVersion()));
+
+        // Submit data to Ingest Resource, second message is missing a key
+        MessageBatchResponse response = request(MessageBatchResponse.class, Given.builder()
+                .method(HttpMethod.POST)
+                .path("/v1/organization/" + getOrganizationName() + "/topic/" + topicName + "/messages")
+                .contentType(APPLICATION_JSON_TYPE)
+                .body(Map.of("messages", List.of(
+                        Map.of("messageKey", "key-1", "messageId", "id-1", "message", Map.of("key", "value1")),
+                        Map.of("messageKey", "", "messageId", "id-2", "message", Map.of("key", "value2")),
+                        Map.of("messageKey", "key-3", "messageId", "id-3", "message", Map.of("key", "value3")))))
+                .build())
+                .assertStatusCode(Response.Status.OK.getStatusCode())
+                .getBody();
+
+        // Assert only the invalid message failed
+        assertEquals(1, response.getFailures().size());
+        MessageBatchFailure failure = response.getFailures().getFirst();
+        assertEquals(1, failure.getIndex());
+        assertEquals("id-2", failure.getMessageId());
+
+        // Assert valid messages are in queue
+        String queueUrl = "https://sqs." + motoInstance.getRegion() + ".amazonaws.com/"
+                          + motoInstance.getAwsAccountId() + "/"
+                          + SqsStreamStore.CUSTOMER_QUEUE_PREFIX + getOrganizationName() + "-" + topicName
+                          + SqsStreamStore.CUSTOMER_QUEUE_SUFFIX;
+        List<Message> messages = getSqsClient().receiveMessage(ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .maxNumberOfMessages(10).build()).messages();
+        assertEquals(2, messages.size());
+    }
+
+    @Test
+    public void testClaimCheck() throws Exception {
+        String topicName = "registration-large";
+        String messageKey = "message-key";
+        String bucketName = "io-dataspray-etl";
+
+        // Setup Target store
+        SingleTable singleTable = SingleTable.builder()
+                .tablePrefix(SingleTableProvider.TABLE_PREFIX_DEFAULT)
+                .overrideGson(GsonUtil.get())
+                .build();
+        DynamoTopicStore dynamoTargetStore = new DynamoTopicStore();
+        dynamoTargetStore.dynamo = getDynamoClient();
+        dynamoTargetStore.singleTable = singleTable;
+        dynamoTargetStore.init();
+
+        // Setup topic to perform stream processing only
+        TopicStore.Topics topics = dynamoTargetStore.getTopics(getOrganizationName(), false);
+        dynamoTargetStore.updateTopic(getOrganizationName(), topicName, Topic.builder()
+                        .streams(ImmutableList.of(
+                                Stream.builder()
+                                        .name(topicName)
+                                        .build()))
+                        .build(),
+                Optional.of(topics.getVersion()));
+
+        // Setup claim-check bucket
+        try {
+            getS3Client().createBucket(CreateBucketRequest.builder()
+                    .bucket(bucketName)
+                    .build());
+        } catch (BucketAlreadyOwnedByYouException ex) {
+            // Already exists and is ours
+        }
+
+        // Submit message larger than SQS allows
+        Map<String, String> body = Map.of("key", "v".repeat(IngestResource.MESSAGE_MAX_BYTES));
+        request(Given.builder()
+                .method(HttpMethod.POST)
+                .path("/v1/organization/" + getOrganizationName() + "/topic/" + topicName + "/message")
+                .query(Map.of(
+                        "messageKey", List.of(messageKey)))
+                .contentType(APPLICATION_JSON_TYPE)
+                .body(body)
+                .build())
+                .assertStatusCode(Response.Status.NO_CONTENT.getStatusCode());
+
+        // Assert only a reference is in queue
+        String queueUrl = "https://sqs." + motoInstance.getRegion() + ".amazonaws.com/"
+                          + motoInstance.getAwsAccountId() + "/"
+                          + SqsStreamStore.CUSTOMER_QUEUE_PREFIX + getOrganizationName() + "-" + topicName
+                          + SqsStreamStore.CUSTOMER_QUEUE_SUFFIX;
+        List<Message> messages = getSqsClient().receiveMessage(ReceiveMessageRequest.builder()
+                .queueUrl(queueUrl)
+                .messageAttributeNames("All")
+                .maxNumberOfMessages(10).build()).messages();
+        assertEquals(1, messages.size());
+        assertEquals(SqsStreamStore.CLAIM_CHECK_BODY_PLACEHOLDER, messages.getFirst().body());
+        String claimCheckUri = messages.getFirst().messageAttributes().get(SqsStreamStore.CLAIM_CHECK_ATTRIBUTE_NAME).stringValue();
+        log.info("Found claim-check {}", claimCheckUri);
+
+        // Assert referenced message is in S3
+        String bucketPrefix = S3ClaimCheckStore.CLAIM_CHECK_URI_PREFIX + bucketName + "/";
+        assertTrue(claimCheckUri.startsWith(bucketPrefix + S3ClaimCheckStore.getClaimCheckOrganizationPrefix(getOrganizationName())), claimCheckUri);
+        ResponseInputStream<GetObjectResponse> objectStream = getS3Client().getObject(GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(claimCheckUri.substring(bucketPrefix.length()))
+                .build());
+        assertEquals(APPLICATION_JSON_TYPE.toString(), objectStream.response().contentType());
+        assertEquals(body, GsonUtil.get().fromJson(new String(objectStream.readAllBytes(), StandardCharsets.UTF_8), Map.class));
+    }
+
+    @Test
+    public void testClaimCheckStoreOnly() throws Exception {
+        String topicName = "registration-large-store";
+        String messageKey = "message-key";
+
+        // Setup Target store
+        SingleTable singleTable = SingleTable.builder()
+                .tablePrefix(SingleTableProvider.TABLE_PREFIX_DEFAULT)
+                .overrideGson(GsonUtil.get())
+                .build();
+        DynamoTopicStore dynamoTargetStore = new DynamoTopicStore();
+        dynamoTargetStore.dynamo = getDynamoClient();
+        dynamoTargetStore.singleTable = singleTable;
+        dynamoTargetStore.init();
+
+        // Setup topic to perform store processing only
+        TopicStore.Topics topics = dynamoTargetStore.getTopics(getOrganizationName(), false);
+        dynamoTargetStore.updateTopic(getOrganizationName(), topicName, Topic.builder()
+                        .store(TopicStore.Store.builder()
+                                .keys(ImmutableSet.of(
+                                        TopicStore.Key.builder()
+                                                .type(Primary)
+                                                .indexNumber(0)
+                                                .pkParts(ImmutableList.of("key"))
+                                                .skParts(ImmutableList.of())
+                                                .rangePrefix("data")
+                                                .build()))
+                                .ttlInSec(1_000)
+                                .whitelist(ImmutableSet.of())
+                                .blacklist(ImmutableSet.of())
+                                .build())
+                        .build(),
+                Optional.of(topics.getVersion()));
+
+        // Message larger than SQS allows is not claim-checked without a stream
+        request(Given.builder()
+                .method(HttpMethod.POST)
+                .path("/v1/organization/" + getOrganizationName() + "/topic/" + topicName + "/message")
+                .query(Map.of(
+                        "messageKey", List.of(messageKey)))
+                .contentType(APPLICATION_JSON_TYPE)
+                .body(Map.of("key", "v".repeat(IngestResource.MESSAGE_MAX_BYTES)))
+                .build())
+                .assertStatusCode(Response.Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode());
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2025 Matus Faro
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package io.dataspray.stream.ingest;
+
+import io.dataspray.stream.ingest.MessageBufferPool.PooledBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageBufferPoolTest {
+
+    private final MessageBufferPool pool = new MessageBufferPool();
+
+    @Test
+    public void testRead() throws Exception {
+        for (int size : new int[]{0, 1, MessageBufferPool.SIZE_CLASS_MIN_BYTES, MessageBufferPool.SIZE_CLASS_MIN_BYTES + 1, 100_000, MessageBufferPool.POOLED_MAX_BYTES, MessageBufferPool.POOLED_MAX_BYTES + 1}) {
+            byte[] data = randomBytes(size);
+            // Length known upfront and unknown
+            for (long contentLength : new long[]{size, -1}) {
+                try (PooledBuffer buffer = pool.readBounded(new ByteArrayInputStream(data), contentLength, 2 * MessageBufferPool.POOLED_MAX_BYTES).orElseThrow()) {
+                    assertEquals(size, buffer.length(), "size " + size + " content length " + contentLength);
+                    assertArrayEquals(data, Arrays.copyOf(buffer.array(), buffer.length()));
+                    assertArrayEquals(data, buffer.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        int maxBytes = 10_000;
+
+        // Rejected upfront
+        assertEquals(Optional.empty(), pool.readBounded(new ByteArrayInputStream(new byte[0]), maxBytes + 1, maxBytes));
+
+        // Rejected while reading
+        assertEquals(Optional.empty(), pool.readBounded(new ByteArrayInputStream(randomBytes(maxBytes + 1)), -1, maxBytes));
+        // Content length was understated
+        assertEquals(Optional.empty(), pool.readBounded(new ByteArrayInputStream(randomBytes(maxBytes + 1)), 100, maxBytes));
+
+        // Exactly at limit
+        try (PooledBuffer buffer = pool.readBounded(new ByteArrayInputStream(randomBytes(maxBytes)), -1, maxBytes).orElseThrow()) {
+            assertEquals(maxBytes, buffer.length());
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        byte[] array;
+        try (PooledBuffer buffer = pool.readBounded(new ByteArrayInputStream(randomBytes(1_000)), 1_000, 10_000).orElseThrow()) {
+            array = buffer.array();
+        }
+        assertEquals(1, pool.idleBufferCount());
+
+        try (PooledBuffer buffer = pool.readBounded(new ByteArrayInputStream(randomBytes(2_000)), -1, 10_000).orElseThrow()) {
+            assertSame(array, buffer.array());
+            assertEquals(0, pool.idleBufferCount());
+        }
+        assertEquals(1, pool.idleBufferCount());
+    }
+
+    private byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}